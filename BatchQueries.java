@@ -0,0 +1,246 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *  The {@code BatchQueries} class answers a file of queries without the
+ *  interactive menus, for scheduled jobs.
+ *  <p>
+ *  Each line of the file is one query, and blank lines and lines starting with
+ *  {@code #} are skipped:
+ *  <pre>
+ *  route 1 2            shortest path between two stop ids
+ *  search HASTINGS      stops whose name starts with the term
+ *  fuzzy HASTNGS        the same, allowing for typos
+ *  token HASTINGS MAIN  stops with all the words anywhere in their name
+ *  trips 17:00 17:30    trips ending in a window, or at one time
+ *  </pre>
+ *  Queries are answered by a fixed pool of worker threads sharing one frozen
+ *  network, and each answer is written as one line of JSON (NDJSON) in the
+ *  order of the input, tagged with its line number. At most a few queries per
+ *  worker are in flight at once, so output streams out as the file is read.
+ *  Throughput and latency statistics are printed to standard error at the end,
+ *  followed by the {@link NetworkMetrics} summary.
+ *  <p>
+ *  Usage: {@code java BatchQueries <queries file> [output file, or - for standard output] [workers] [stops file] [transfers file] [stop times file]}
+ */
+public class BatchQueries {
+	private static final int SEARCH_LIMIT = 20; // Stops listed per search, the count covers all of them
+	private static final int TRIP_LIMIT = 100;
+	private static final int IN_FLIGHT_PER_WORKER = 4;
+
+	private static final String[] KINDS = {"route", "search", "fuzzy", "token", "trips"};
+
+	private final BusNetwork network;
+	private final LatencyHistogram[] latencies = new LatencyHistogram[KINDS.length];
+	private final LatencyHistogram overall = new LatencyHistogram();
+	private final LongAdder errors = new LongAdder();
+
+	public BatchQueries(BusNetwork network) {
+		network.freeze();
+		this.network = network;
+
+		for (int k = 0; k < KINDS.length; k++)
+			latencies[k] = new LatencyHistogram();
+	}
+
+	public long run(BufferedReader in, Writer out, int workers) throws IOException, InterruptedException { // Returns the number of queries answered
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		ArrayDeque<Future<String>> in_flight = new ArrayDeque<Future<String>>();
+		long count = 0;
+
+		try {
+			String line;
+			int line_number = 0;
+
+			while ((line = in.readLine()) != null) {
+				line_number++;
+
+				String query = line.trim();
+				if (query.isEmpty() || query.startsWith("#")) continue;
+
+				int number = line_number;
+				in_flight.add(pool.submit(() -> answer(number, query)));
+				count++;
+
+				if (in_flight.size() >= workers * IN_FLIGHT_PER_WORKER)
+					write(out, in_flight.poll());
+			}
+
+			while (!in_flight.isEmpty())
+				write(out, in_flight.poll());
+
+			out.flush();
+		} finally {
+			pool.shutdownNow();
+		}
+
+		return count;
+	}
+
+	private static void write(Writer out, Future<String> answer) throws IOException, InterruptedException {
+		try {
+			out.write(answer.get());
+			out.write('\n');
+		} catch (ExecutionException e) { // answer catches everything itself
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	private String answer(int line_number, String query) {
+		long start = System.nanoTime();
+
+		String[] words = query.split("\\s+", 2);
+		String kind = words[0].toLowerCase();
+		String args = words.length > 1 ? words[1] : "";
+
+		Json json = new Json().beginObject();
+		json.name("line").value(line_number);
+		json.name("query").value(kind);
+
+		try {
+			switch (kind) {
+				case "route": route(json, args); break;
+				case "search": search(json, args, BusNetwork.SearchType.PREFIX); break;
+				case "fuzzy": search(json, args, BusNetwork.SearchType.FUZZY); break;
+				case "token": search(json, args, BusNetwork.SearchType.TOKEN); break;
+				case "trips": trips(json, args); break;
+				default: throw new QueryException("Unknown query " + words[0]);
+			}
+		} catch (QueryException e) {
+			errors.increment();
+			json = new Json().beginObject();
+			json.name("line").value(line_number);
+			json.name("query").value(kind);
+			json.name("error").value(e.getMessage());
+		} catch (RuntimeException e) {
+			errors.increment();
+			json = new Json().beginObject();
+			json.name("line").value(line_number);
+			json.name("query").value(kind);
+			json.name("error").value(e.toString());
+		}
+
+		long elapsed = System.nanoTime() - start;
+		overall.record(elapsed);
+
+		int k = Arrays.asList(KINDS).indexOf(kind);
+		if (k != -1) latencies[k].record(elapsed);
+
+		return json.endObject().toString();
+	}
+
+	// Queries
+
+	private BusNetwork.Stop stop(String id) {
+		BusNetwork.Stop stop = null;
+		try {
+			stop = network.getStopById(Integer.parseInt(id));
+		} catch (NumberFormatException e) {
+			throw new QueryException("Stop id " + id + " isn't a number");
+		}
+
+		if (stop == null) throw new QueryException("No stop with id " + id);
+		return stop;
+	}
+
+	private void route(Json json, String args) {
+		String[] ids = args.split("\\s+");
+		if (ids.length != 2) throw new QueryException("route takes two stop ids");
+
+		BusNetwork.Stop from = stop(ids[0]);
+		BusNetwork.Stop to = stop(ids[1]);
+
+		json.name("from").value(from.getStopId());
+		json.name("to").value(to.getStopId());
+		QueryJson.writePathFields(json, network.getCachedPath(from, to));
+	}
+
+	private void search(Json json, String args, BusNetwork.SearchType type) {
+		if (args.isEmpty()) throw new QueryException("Missing search term");
+
+		List<BusNetwork.Stop> found = network.searchStops(args.toUpperCase(), type);
+
+		json.name("term").value(args);
+		QueryJson.writeCounts(json, found.size(), SEARCH_LIMIT);
+		json.name("stops").beginArray();
+		for (int i = 0; i < found.size() && i < SEARCH_LIMIT; i++)
+			QueryJson.writeStop(json, found.get(i));
+		json.endArray();
+	}
+
+	private void trips(Json json, String args) {
+		String[] times = args.split("\\s+");
+		if (args.isEmpty() || times.length > 2) throw new QueryException("trips takes a time, or two for a window");
+
+		LocalTime from = MainProgramme.parseTime(times[0]);
+		LocalTime to = times.length > 1 ? MainProgramme.parseTime(times[1]) : from;
+		if (from == null || to == null) throw new QueryException("Times must be formatted as HH:MM or HH:MM:SS");
+
+		List<BusNetwork.Trip> found = network.getTripsBetween(from, to);
+
+		json.name("from").value(from.toString());
+		json.name("to").value(to.toString());
+		QueryJson.writeCounts(json, found.size(), TRIP_LIMIT);
+		json.name("trips").beginArray();
+		for (int i = 0; i < found.size() && i < TRIP_LIMIT; i++)
+			QueryJson.writeTrip(json, found.get(i));
+		json.endArray();
+	}
+
+	// Statistics
+
+	public void printStats(PrintStream out, long count, long nanos, int workers) {
+		double seconds = nanos / 1e9;
+
+		out.printf("%d queries, %d errors in %.2fs on %d workers: %.0f queries/s%n", count, errors.sum(), seconds, workers, count / Math.max(seconds, 1e-9));
+		out.println("all     " + overall);
+		for (int k = 0; k < KINDS.length; k++)
+			if (latencies[k].getCount() > 0)
+				out.printf("%-7s %s%n", KINDS[k], latencies[k]);
+
+		out.println(NetworkMetrics.get().getSummary()); // Load phases, and work done inside the network
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 1) {
+			System.err.println("Usage: java BatchQueries <queries file> [output file, or - for standard output] [workers] [stops file] [transfers file] [stop times file]");
+			return;
+		}
+
+		String queries_file = args[0];
+		String output_file = args.length > 1 ? args[1] : "-";
+		int workers = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		String stops_file = args.length > 3 ? args[3] : "src/stops.txt";
+		String transfers_file = args.length > 4 ? args[4] : "src/transfers.txt";
+		String stop_times_file = args.length > 5 ? args[5] : "src/stop_times.txt";
+
+		PrintStream stdout = System.out;
+		System.setOut(System.err); // Loading progress goes to standard error, keeping standard output for answers
+
+		BusNetwork network = MainProgramme.loadNetwork(stops_file, transfers_file, stop_times_file, stop_times_file + ".snapshot");
+		if (network == null) {
+			System.err.println("Error finding file, exiting...");
+			return;
+		}
+
+		BatchQueries batch = new BatchQueries(network);
+		System.setOut(stdout);
+
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(queries_file), StandardCharsets.UTF_8));
+			Writer out = output_file.equals("-")
+				? new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8))
+				: new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output_file), StandardCharsets.UTF_8))) {
+			long start = System.nanoTime();
+			long count = batch.run(in, out, workers);
+
+			batch.printStats(System.err, count, System.nanoTime() - start, workers);
+		}
+	}
+}
@@ -0,0 +1,326 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.LocalTime;
+import java.util.*;
+
+/**
+ *  The {@code Benchmarks} class is a small self-contained benchmark harness
+ *  for the hot paths of {@link BusNetwork}: routing, journey planning, stop
+ *  search, timetable lookup and loading. It runs against the trimmed fixture
+ *  feed in {@code bench_files} by default.
+ *  <p>
+ *  Each benchmark is warmed up, then timed over several fixed-length
+ *  iterations. Alongside latency it reports the bytes allocated per operation
+ *  and the allocation rate of the benchmark thread, plus the number of
+ *  collections during measurement, so allocation regressions show up as
+ *  clearly as slowdowns.
+ *  <p>
+ *  Usage: {@code java Benchmarks [feed directory] [name filter]}
+ */
+public class Benchmarks {
+	private static int warmup_iterations = 5;
+	private static int measurement_iterations = 10;
+	private static long iteration_nanos = 200_000_000L;
+
+	private static final int PAIRS_PER_CLASS = 64;
+
+	private static long sink = 0; // Results are folded in here so the JIT can't discard them
+
+	private interface Operation {
+		void run(int i); // i counts operations, for cycling through inputs
+	}
+
+	private static final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc:ManagementFactory.getGarbageCollectorMXBeans())
+			count += Math.max(0, gc.getCollectionCount());
+
+		return count;
+	}
+
+	private static void measure(String name, String filter, Operation op) {
+		if (filter != null && !name.contains(filter)) return;
+
+		int i = 0;
+
+		for (int iteration = 0; iteration < warmup_iterations; iteration++) {
+			long end = System.nanoTime() + iteration_nanos;
+			do {
+				op.run(i++);
+			} while (System.nanoTime() < end);
+		}
+
+		double[] ns_per_op = new double[measurement_iterations];
+		long total_ops = 0;
+		long total_nanos = 0;
+		long total_bytes = 0;
+		long gc_before = gcCount();
+
+		for (int iteration = 0; iteration < measurement_iterations; iteration++) {
+			long ops = 0;
+			long bytes_before = threads.getCurrentThreadAllocatedBytes();
+			long start = System.nanoTime();
+			long end = start + iteration_nanos;
+			long now;
+
+			do {
+				op.run(i++);
+				ops++;
+				now = System.nanoTime();
+			} while (now < end);
+
+			total_bytes += threads.getCurrentThreadAllocatedBytes() - bytes_before;
+			total_nanos += now - start;
+			total_ops += ops;
+			ns_per_op[iteration] = (double) (now - start) / ops;
+		}
+
+		long gc_runs = gcCount() - gc_before;
+
+		double mean = (double) total_nanos / total_ops;
+		double variance = 0;
+		for (double x:ns_per_op)
+			variance += (x - mean) * (x - mean);
+		double error = Math.sqrt(variance / Math.max(1, measurement_iterations - 1));
+
+		double bytes_per_op = (double) total_bytes / total_ops;
+		double alloc_rate = total_bytes / (total_nanos / 1e9) / (1024 * 1024);
+
+		System.out.printf("%-36s %14s %12s %14.1f %12.1f %6d%n", name, formatNanos(mean), "+- " + formatNanos(error), bytes_per_op, alloc_rate, gc_runs);
+	}
+
+	private static String formatNanos(double ns) {
+		if (ns >= 1e6) return String.format("%.2f ms", ns / 1e6);
+		if (ns >= 1e3) return String.format("%.2f us", ns / 1e3);
+		return String.format("%.1f ns", ns);
+	}
+
+	// Checks, run before timing so a benchmark never measures a wrong answer
+
+	private static void checkTripWindows(BusNetwork network) { // A window across midnight must hold exactly the trips of its two halves
+		int[][] windows = {{23 * 3600, 3600}, {23 * 3600 + 1800, 1800}, {22 * 3600, 0}};
+		LocalTime last_second = LocalTime.ofSecondOfDay(BusNetwork.DAY_SECONDS - 1);
+
+		for (int[] window:windows) {
+			LocalTime from = LocalTime.ofSecondOfDay(window[0]);
+			LocalTime to = LocalTime.ofSecondOfDay(window[1]);
+
+			List<BusNetwork.Trip> wrapped = network.getTripsBetween(from, to);
+			Set<BusNetwork.Trip> halves = new HashSet<BusNetwork.Trip>(network.getTripsBetween(from, last_second));
+			halves.addAll(network.getTripsBetween(LocalTime.MIDNIGHT, to));
+
+			if (wrapped.size() != halves.size() || !halves.containsAll(wrapped))
+				throw new IllegalStateException("getTripsBetween(" + from + ", " + to + ") found " + wrapped.size() + " trips, but its halves find " + halves.size());
+		}
+	}
+
+	// Inputs
+
+	private static int[][] routePairs(BusNetwork network) { // Fixed random pairs split into short, medium and cross-region by distance
+		PathSearch search = network.getSearch();
+		int n = network.stop_list.size();
+		Random random = new Random(22012);
+
+		long[] pairs = new long[PAIRS_PER_CLASS * 3 * 4];
+		double[] distances = new double[pairs.length];
+		Integer[] order = new Integer[pairs.length];
+
+		for (int i = 0; i < pairs.length; i++) {
+			int from = random.nextInt(n);
+			int to = random.nextInt(n);
+			pairs[i] = ((long) from << 32) | to;
+			distances[i] = search.distance(from, to);
+			order[i] = i;
+		}
+
+		Arrays.sort(order, (a, b) -> Double.compare(distances[a], distances[b]));
+
+		int[][] classes = new int[3][PAIRS_PER_CLASS * 2];
+		for (int c = 0; c < 3; c++) {
+			int base = c * (pairs.length / 3);
+			for (int k = 0; k < PAIRS_PER_CLASS; k++) {
+				long pair = pairs[order[base + k * (pairs.length / 3) / PAIRS_PER_CLASS]];
+				classes[c][2*k] = (int) (pair >>> 32);
+				classes[c][2*k+1] = (int) pair;
+			}
+		}
+
+		return classes;
+	}
+
+	private static String[] searchPrefixes(BusNetwork network) { // Prefixes of real stop names, one to six characters long
+		Random random = new Random(22012);
+		String[] prefixes = new String[256];
+
+		for (int i = 0; i < prefixes.length; i++) {
+			String key = network.getNode(random.nextInt(network.stop_list.size())).getKey();
+			prefixes[i] = key.substring(0, Math.min(key.length(), 1 + i % 6));
+		}
+
+		return prefixes;
+	}
+
+	private static String[] searchTypos(BusNetwork network) { // Prefixes of real stop names, three to ten characters long, with one character changed
+		Random random = new Random(22013);
+		String[] typos = new String[256];
+
+		for (int i = 0; i < typos.length; i++) {
+			String key = network.getNode(random.nextInt(network.stop_list.size())).getKey();
+			char[] typo = key.substring(0, Math.min(key.length(), 3 + i % 8)).toCharArray();
+			typo[random.nextInt(typo.length)] = (char) ('A' + random.nextInt(26));
+			typos[i] = new String(typo);
+		}
+
+		return typos;
+	}
+
+	public static void main(String[] args) {
+		String dir = args.length > 0 ? args[0] : "bench_files";
+		String filter = args.length > 1 ? args[1] : null;
+
+		String stops_file = dir + "/stops.txt";
+		String transfers_file = dir + "/transfers.txt";
+		String times_file = dir + "/stop_times.txt";
+
+		BusNetwork.setDebugPrint(false);
+
+		BusNetwork network = BusNetwork.networkFromFiles(stops_file, transfers_file, times_file);
+		if (network == null) {
+			System.out.println("Couldn't load feed from " + dir);
+			return;
+		}
+
+		checkTripWindows(network);
+
+		int[][] pairs = routePairs(network);
+		String[] prefixes = searchPrefixes(network);
+		String[] typos = searchTypos(network);
+
+		System.out.printf("%-36s %14s %12s %14s %12s %6s%n", "Benchmark", "Time/op", "Error", "Alloc B/op", "Alloc MB/s", "GCs");
+
+		String[] classes = {"short", "medium", "cross_region"};
+		for (int c = 0; c < 3; c++) {
+			int[] class_pairs = pairs[c];
+			measure("getPath." + classes[c], filter, i -> {
+				int k = (i % PAIRS_PER_CLASS) * 2;
+				BusNetwork.Path path = network.getPath(network.getNode(class_pairs[k]), network.getNode(class_pairs[k+1]));
+				if (path != null) sink += path.stops.size();
+			});
+
+			for (BusNetwork.HeapType heap:BusNetwork.HeapType.values()) { // The two Dijkstra heaps side by side
+				measure("getPath." + classes[c] + "." + heap.name().toLowerCase(), filter, i -> {
+					int k = (i % PAIRS_PER_CLASS) * 2;
+					BusNetwork.Path path = network.getPath(network.getNode(class_pairs[k]), network.getNode(class_pairs[k+1]), heap);
+					if (path != null) sink += path.stops.size();
+				});
+			}
+		}
+
+		// Every search mode over the pairs of all classes. Counting the nodes each
+		// settles first also builds the landmarks and hierarchy outside the timings
+
+		Map<String, Double> settled = new LinkedHashMap<String, Double>();
+		int pair_count = PAIRS_PER_CLASS * 3;
+
+		for (BusNetwork.SearchMode mode:BusNetwork.SearchMode.values()) {
+			String name = "getPath.mode." + mode.name().toLowerCase();
+			if (filter != null && !name.contains(filter)) continue;
+
+			long total = 0;
+			int found = 0;
+			for (int p = 0; p < pair_count; p++) {
+				int k = (p / 3) * 2;
+				BusNetwork.Path path = network.getPath(network.getNode(pairs[p % 3][k]), network.getNode(pairs[p % 3][k+1]), mode);
+				if (path == null) continue;
+
+				total += path.nodes_settled;
+				found++;
+			}
+			settled.put(name, (double) total / Math.max(1, found));
+
+			measure(name, filter, i -> {
+				int p = i % pair_count;
+				int k = (p / 3) * 2;
+				BusNetwork.Path path = network.getPath(network.getNode(pairs[p % 3][k]), network.getNode(pairs[p % 3][k+1]), mode);
+				if (path != null) sink += path.stops.size();
+			});
+		}
+
+		measure("getCachedPath", filter, i -> { // Cycling through fewer pairs than the cache holds
+			int k = (i % PAIRS_PER_CLASS) * 2;
+			BusNetwork.Path path = network.getCachedPath(network.getNode(pairs[1][k]), network.getNode(pairs[1][k+1]));
+			if (path != null) sink += path.stops.size();
+		});
+
+		List<BusNetwork.Stop> matrix_from = new ArrayList<BusNetwork.Stop>();
+		List<BusNetwork.Stop> matrix_to = new ArrayList<BusNetwork.Stop>();
+		for (int k = 0; k < PAIRS_PER_CLASS; k++) {
+			matrix_from.add(network.getNode(pairs[2][2*k]));
+			matrix_to.add(network.getNode(pairs[2][2*k+1]));
+		}
+
+		measure("getCostMatrix.64x64", filter, i -> {
+			double cost = network.getCostMatrix(matrix_from, matrix_to)[i % (PAIRS_PER_CLASS * PAIRS_PER_CLASS)];
+			if (cost != Double.POSITIVE_INFINITY) sink += (long) cost;
+		});
+
+		int[] journey_pairs = pairs[1];
+		measure("getEarliestArrival", filter, i -> {
+			int k = (i % PAIRS_PER_CLASS) * 2;
+			Journey journey = network.getEarliestArrival(network.getNode(journey_pairs[k]), network.getNode(journey_pairs[k+1]), LocalTime.ofSecondOfDay(6 * 3600 + (i % 64) * 900));
+			if (journey != null) sink += journey.arrival;
+		});
+
+		measure("getJourneyOptions", filter, i -> {
+			int k = (i % PAIRS_PER_CLASS) * 2;
+			sink += network.getJourneyOptions(network.getNode(journey_pairs[k]), network.getNode(journey_pairs[k+1]), LocalTime.ofSecondOfDay(6 * 3600 + (i % 64) * 900)).size();
+		});
+
+		measure("searchStops", filter, i -> sink += network.searchStops(prefixes[i % prefixes.length]).size());
+
+		measure("searchStops.limit10", filter, i -> sink += network.searchStops(prefixes[i % prefixes.length], 10).size());
+
+		measure("searchStopsFuzzy", filter, i -> sink += network.searchStopsFuzzy(typos[i % typos.length]).size());
+
+		measure("searchStopsByToken", filter, i -> sink += network.searchStopsByToken(prefixes[i % prefixes.length] + " " + prefixes[(i + 1) % prefixes.length]).size());
+
+		// The node based trie against the array based one BusNetwork uses, on the same keys
+		TST<BusNetwork.Stop> tst = new TST<BusNetwork.Stop>();
+		for (BusNetwork.Stop stop:network.stop_list)
+			tst.put(stop.getKey(), stop);
+		CompactTST<BusNetwork.Stop> compact = network.getStopSearch();
+
+		measure("TST.get", filter, i -> sink += tst.get(network.getNode(i % network.stop_list.size()).getKey()).node_id);
+		measure("CompactTST.get", filter, i -> sink += compact.get(network.getNode(i % network.stop_list.size()).getKey()).node_id);
+
+		measure("TST.keysWithPrefix", filter, i -> {
+			for (String key:tst.keysWithPrefix(prefixes[i % prefixes.length]))
+				sink += key.length();
+		});
+		measure("CompactTST.keysWithPrefix", filter, i -> {
+			for (String key:compact.keysWithPrefix(prefixes[i % prefixes.length]))
+				sink += key.length();
+		});
+
+		measure("getTripsAtTime", filter, i -> sink += network.getTripsAtTime(LocalTime.ofSecondOfDay((i % 1440) * 60)).size());
+
+		measure("getTripsBetween", filter, i -> { // Walking an hour's window
+			for (Iterator<BusNetwork.Trip> trips = network.iterateTripsBetween(LocalTime.ofSecondOfDay((i % 23) * 3600), LocalTime.ofSecondOfDay((i % 23 + 1) * 3600)); trips.hasNext(); )
+				sink += trips.next().id;
+		});
+
+		measure("networkFromFiles", filter, i -> sink += BusNetwork.networkFromFiles(stops_file, transfers_file, times_file).stop_list.size());
+
+		if (!settled.isEmpty()) {
+			System.out.println();
+			System.out.printf("%-36s %14s%n", "Search mode", "Settled/path");
+			for (Map.Entry<String, Double> mode:settled.entrySet())
+				System.out.printf("%-36s %14.1f%n", mode.getKey(), mode.getValue());
+			System.out.println();
+		}
+
+		System.out.println("(checksum " + sink + ")");
+	}
+}
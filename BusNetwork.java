@@ -1,12 +1,15 @@
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.time.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class BusNetwork {
 	// Config values
 	private static double direct_route_cost = 1.0;
 	private static double direct_transfer_cost = 2.0;
 	private static double transfer_time_cost = 0.01;
+	private static int max_journey_transfers = 4; // Limit for journey options
 	
 	private static boolean debug_print_enabled = true;
 	
@@ -15,28 +18,38 @@ public class BusNetwork {
 			System.out.println(to_print);
 	}
 	
-	// PriorityQueue classes (for Dijkstra)
+	public static void setDebugPrint(boolean enabled) {
+		debug_print_enabled = enabled;
+	}
 	
-	private class QueueItem {
-		Stop stop;
-		double cost;
-		
-		public QueueItem(Stop node, double cost) {
-			this.stop = node;
-			this.cost = cost;
-		}
+	// Dijkstra heap selection
+	
+	public enum HeapType {
+		INDEXED, // Indexed binary heap with real decrease-key
+		LAZY // Plain binary heap, stale entries skipped when polled
 	}
 	
-	private class DijkstraComparator implements Comparator<QueueItem> {
-		@Override
-		public int compare(QueueItem o1, QueueItem o2) {
-			return Double.compare(o1.cost,o2.cost);
-		}
+	private static HeapType default_heap_type = HeapType.INDEXED;
+	
+	public enum SearchMode {
+		DIJKSTRA,
+		ASTAR, // Goal-directed using landmark and haversine lower bounds
+		BIDIRECTIONAL, // Dijkstra from both ends over the reverse graph
+		BIDIRECTIONAL_ASTAR,
+		CONTRACTION_HIERARCHY // Upward searches over a preprocessed hierarchy
+	}
+	
+	// Stop search modes
+	
+	public enum SearchType {
+		PREFIX, // Names starting with the search term
+		FUZZY, // Names starting with the search term, allowing for typos
+		TOKEN // Names or descriptions containing words starting with each word of the search term
 	}
 	
 	// Utility classes
 	
-	public static class Connection {
+	public static class Connection { // One edge of the routing graph
 		Stop from;
 		Stop to;
 		
@@ -44,7 +57,7 @@ public class BusNetwork {
 		int type;
 	}
 	
-	public static class Stop {
+	public static class Stop { // Flyweight view of one row of the network's StopTable
 		private static String prefix_to_suffix(String raw, String prefix) {
 			if (raw.length() < prefix.length()) return raw;
 			
@@ -55,7 +68,7 @@ public class BusNetwork {
 			return ret;
 		}
 		
-		private static String correct_name(String raw_name) {
+		static String correct_name(String raw_name) {
 			raw_name = raw_name.toUpperCase();
 			
 			raw_name = prefix_to_suffix(raw_name,"FLAGSTOP");
@@ -67,35 +80,72 @@ public class BusNetwork {
 			return raw_name;
 		}
 		
-		List<Connection> connections = new ArrayList<Connection>();
-		int stop_id;
-		int node_id;
-		int stop_code;
-		String TST_key;
+		final BusNetwork network;
+		final int node_id;
+		
+		public int getStopId() {
+			return network.stop_table.getStopId(node_id);
+		}
+		
+		public int getStopCode() {
+			return network.stop_table.getStopCode(node_id);
+		}
+		
+		public String getKey() { // Name as stored in the search trie
+			return network.stop_table.getKey(node_id);
+		}
+		
+		public String getName() {
+			return network.stop_table.getName(node_id);
+		}
+		
+		public String getDesc() {
+			return network.stop_table.getDesc(node_id);
+		}
+		
+		public double getLat() {
+			return network.stop_table.getLat(node_id);
+		}
 		
-		String name;
-		String desc;
+		public double getLon() {
+			return network.stop_table.getLon(node_id);
+		}
 		
-		double lat;
-		double lon;
+		public String getZone() {
+			return network.stop_table.getZone(node_id);
+		}
 		
-		String zone;
+		public void connect(Stop to, double length, int type) { // Takes effect at the next buildGraph
+			network.addConnection(node_id, to.node_id, length, type);
+		}
 		
-		public void connect(Stop to, double length, int type) {
+		private Connection toConnection(CompactGraph graph, int edge) {
 			Connection conn = new Connection();
 			
 			conn.from = this;
-			conn.to = to;
-			conn.cost = length;
-			conn.type = type;
+			conn.to = network.getNode(graph.getTarget(edge));
+			conn.cost = graph.getCost(edge);
+			conn.type = graph.getType(edge);
 			
-			connections.add(conn);
+			return conn;
 		}
 		
-		public Connection getConnection(Stop target) {
-			for (Connection c:connections) {
-				if (c.to == target)
-					return c;
+		public List<Connection> getConnections() {
+			CompactGraph graph = network.getGraph();
+			List<Connection> ret = new ArrayList<Connection>(graph.endEdge(node_id) - graph.firstEdge(node_id));
+			
+			for (int e = graph.firstEdge(node_id); e < graph.endEdge(node_id); e++)
+				ret.add(toConnection(graph, e));
+			
+			return ret;
+		}
+		
+		public Connection getConnection(Stop target) { // The direct route if there is one, otherwise the transfer
+			CompactGraph graph = network.getGraph();
+			
+			for (int e = graph.firstEdge(node_id); e < graph.endEdge(node_id); e++) {
+				if (graph.getTarget(e) == target.node_id)
+					return toConnection(graph, e); // Edges are sorted by type, direct first
 			}
 			
 			return null;
@@ -111,27 +161,18 @@ public class BusNetwork {
 		}
 		
 		public String toString() {
-			return this.name;
+			return getName();
 		}
 		
 		public String dataToString() {
-			String code_str = (this.stop_code != -1) ? Integer.toString(this.stop_code) : "N/A";
-			return this.name + ":\n" + this.desc + "\n" + "Stop ID: " + this.stop_id + "	Stop Code:" + code_str + "\n\nLocation: " + this.lat + ", " + this.lon + "\nZone: " + this.zone;
+			int stop_code = getStopCode();
+			String code_str = (stop_code != -1) ? Integer.toString(stop_code) : "N/A";
+			return getName() + ":\n" + getDesc() + "\n" + "Stop ID: " + getStopId() + "	Stop Code:" + code_str + "\n\nLocation: " + getLat() + ", " + getLon() + "\nZone: " + getZone();
 		}
 		
-		public Stop(int node_id, int stop_id, int stop_code, String name, String desc, double lat, double lon, String zone) {
+		Stop(BusNetwork network, int node_id) {
+			this.network = network;
 			this.node_id = node_id;
-			this.stop_id = stop_id;
-			this.stop_code = stop_code;
-			this.TST_key = correct_name(name);
-			
-			this.name = name;
-			this.desc = desc;
-			
-			this.lat = lat;
-			this.lon = lon;
-			
-			this.zone = zone;
 		}
 	}
 	
@@ -140,6 +181,7 @@ public class BusNetwork {
 	public static class Path {
 		List<Stop> stops = new ArrayList<Stop>();
 		double cost = 0;
+		int nodes_settled = 0; // Size of the search that found this path
 		
 		public String toString() {
 			String ret = "Total cost: " + Double.toString(cost) + "\n";
@@ -163,75 +205,91 @@ public class BusNetwork {
 	}
 	
 	public Path getPath(Stop from, Stop to) { // Finds shortest path between two stops using Dijkstra
-		// Setting up priority queue and distance cache
-		
-		int stop_amount = stop_list.size();
+		return getPath(from, to, default_heap_type);
+	}
+	
+	public Path getPath(Stop from, Stop to, HeapType heap_type) {
+		long start = System.nanoTime();
+		Path path = buildPath(getSearch().dijkstra(from.node_id, to.node_id, heap_type));
 		
-		QueueItem[] entry_cache = new QueueItem[stop_amount];
+		NetworkMetrics.get().path_latency.record(System.nanoTime() - start);
+		return path;
+	}
+	
+	public PathSearch.Tree getShortestPathTree(Stop from) { // Cheapest costs and predecessors from one stop to every stop, by node id
+		return getSearch().shortestPathTree(from.node_id);
+	}
+	
+	public double[] getCostMatrix(List<Stop> from, List<Stop> to) { // Flat row-major matrix, from.size() rows of to.size() costs, infinite where there's no path
+		int[] sources = new int[from.size()];
+		for (int i = 0; i < sources.length; i++)
+			sources[i] = from.get(i).node_id;
 		
-		int[] came_from = new int[stop_amount];
+		int[] targets = new int[to.size()];
+		for (int i = 0; i < targets.length; i++)
+			targets[i] = to.get(i).node_id;
 		
-		for (int i = 0; i < stop_amount; i++) {
-			entry_cache[i] = new QueueItem(this.getNode(i),Double.MAX_VALUE);
-			came_from[i] = -1;
-		}
+		return getSearch().costMatrix(sources, targets);
+	}
+	
+	public synchronized RouteCache getRouteCache() {
+		if (route_cache == null)
+			route_cache = new RouteCache(this);
 		
-		PriorityQueue<QueueItem> queue = new PriorityQueue<>(new DijkstraComparator());
+		return route_cache;
+	}
+	
+	public Path getCachedPath(Stop from, Stop to) { // As getPath, reusing recent results; the path returned is shared and mustn't be modified
+		long start = System.nanoTime();
+		Path path = getRouteCache().getPath(from, to);
 		
-		entry_cache[from.node_id] = new QueueItem(from, 0);
-		queue.add(entry_cache[from.node_id]);
+		NetworkMetrics.get().cached_path_latency.record(System.nanoTime() - start);
+		return path;
+	}
+	
+	public Path getPath(Stop from, Stop to, SearchMode mode) {
+		if (mode == SearchMode.DIJKSTRA)
+			return getPath(from, to, default_heap_type);
 		
-		// Computing path
+		long start = System.nanoTime();
+		Path path = findPath(from, to, mode);
 		
-		while (true) {
-			QueueItem entry = queue.poll();
-			if (entry == null) return null; // Queue was fully exhausted = no path found
-			
-			Stop current_stop = entry.stop;
-			double current_cost = entry.cost;
-			
-			if (current_stop == to) break; // Found target stop, exit early
-			
-			List<Connection> connections = current_stop.connections;
-			for (Connection path:connections) {
-				Stop to_check = path.to;
-				
-				QueueItem old_entry = entry_cache[to_check.node_id];
-				
-				double new_cost = current_cost + path.cost;
-				if (old_entry.cost <= new_cost) continue;
-				
-				QueueItem new_entry = new QueueItem(to_check, new_cost);
-				
-				queue.remove(old_entry);
-				queue.add(new_entry);
-				
-				entry_cache[to_check.node_id] = new_entry;
-				came_from[to_check.node_id] = current_stop.node_id;
-			}
+		NetworkMetrics.get().path_latency.record(System.nanoTime() - start);
+		return path;
+	}
+	
+	private Path findPath(Stop from, Stop to, SearchMode mode) {
+		PathSearch search = getSearch();
+		
+		switch (mode) {
+			case ASTAR:
+				return buildPath(search.astar(from.node_id, to.node_id));
+			case BIDIRECTIONAL:
+				return buildPath(search.bidirectional(from.node_id, to.node_id, false));
+			case BIDIRECTIONAL_ASTAR:
+				return buildPath(search.bidirectional(from.node_id, to.node_id, true));
+			case CONTRACTION_HIERARCHY:
+				return buildPath(getContractionHierarchy().query(from.node_id, to.node_id));
+			default:
+				return buildPath(search.dijkstra(from.node_id, to.node_id, default_heap_type));
 		}
+	}
+	
+	Path buildPath(PathSearch.Result result) { // Converts node ids from a search into a Path of stops
+		if (result == null) return null; // No path found
 		
-		// Creating list of stops
-		
-		Stop current_stop = to;
-		
-		List<Stop> stops = new ArrayList<Stop>();
-		stops.add(current_stop);
+		List<Stop> stops = new ArrayList<Stop>(result.nodes.length);
 		
-		while (true) {
-			int from_id = came_from[current_stop.node_id];
-			if (from_id == -1) break;
-			
-			current_stop = this.getNode(from_id);
-			stops.add(0,current_stop);
-		}
+		for (int node:result.nodes)
+			stops.add(this.getNode(node));
 		
 		// Returning Path object
 		
 		Path path = new Path();
 		
 		path.stops = stops;
-		path.cost = entry_cache[to.node_id].cost;
+		path.cost = result.cost;
+		path.nodes_settled = result.settled;
 		
 		return path;
 	}
@@ -241,7 +299,7 @@ public class BusNetwork {
 	private static class TripComparator implements Comparator<Trip> {
 		@Override
 		public int compare(BusNetwork.Trip o1, BusNetwork.Trip o2) {
-			int time_delta = o1.last_time.compareTo(o2.last_time);
+			int time_delta = Integer.compare(o1.last_time, o2.last_time);
 			
 			if (time_delta == 0)
 				return Integer.compare(o1.id, o2.id); // Sort by ID if time is equal
@@ -250,11 +308,41 @@ public class BusNetwork {
 		}
 	}
 	
+	public static final int DAY_SECONDS = 24 * 60 * 60;
+	
+	public static String formatTime(int seconds) { // Same format as LocalTime, but hours can pass 23 for service after midnight
+		if (seconds == Trip.NO_TIME) return "--:--";
+		
+		String ret = String.format("%02d:%02d", seconds / 3600, seconds / 60 % 60);
+		if (seconds % 60 != 0)
+			ret = ret + String.format(":%02d", seconds % 60);
+		
+		return ret;
+	}
+	
 	public static class Trip extends Path {
-		List<LocalTime> times = new ArrayList<LocalTime>();
+		public static final int NO_TIME = Integer.MAX_VALUE; // Unparseable time, sorts after every real one
+		
+		int[] times = new int[8]; // Seconds since the start of the service day, one per stop
 		
 		int id;
-		LocalTime last_time = null;
+		int last_time = -1;
+		
+		private boolean frozen = false; // Set when the network is frozen
+		
+		public int getTime(int index) {
+			return times[index];
+		}
+		
+		public int usableLength() { // Stops before the first unknown time or one going backwards, the part of the trip timetable queries ride
+			int last = 0;
+			for (int i = 0; i < stops.size(); i++) {
+				if (times[i] == NO_TIME || times[i] < last) return i;
+				last = times[i];
+			}
+			
+			return stops.size();
+		}
 		
 		public Stop getLastStop() {
 			if (stops.size() > 0)
@@ -263,32 +351,66 @@ public class BusNetwork {
 				return null;
 		}
 		
-		public void addStop(Stop stop, LocalTime time) {
-			if (times.size() > 0) {
-				if (last_time != null && time.compareTo(last_time) < 0) {
-					System.out.println("Warning: Added stop to trip going back in time! (" + last_time + " > " + time + ")");
-				}
-			}
+		public void addStop(Stop stop, int time) {
+			if (stops.size() > 0 && time < last_time)
+				System.out.println("Warning: Added stop to trip going back in time! (" + formatTime(last_time) + " > " + formatTime(time) + ")");
+			
+			appendStop(stop, time);
+		}
+		
+		void appendStop(Stop stop, int time) { // Adds a stop without checking its time, for restoring trips
+			if (frozen) throw new IllegalStateException("Trip " + id + " belongs to a frozen network");
+			
+			if (stops.size() == times.length)
+				times = Arrays.copyOf(times, times.length * 2);
 			
+			times[stops.size()] = time;
 			stops.add(stop);
-			times.add(time);
 			
-			if (last_time == null || time.compareTo(last_time) > 0)
+			if (time > last_time)
 				last_time = time;
 		}
 		
+		void trimToSize() {
+			if (times.length != stops.size())
+				times = Arrays.copyOf(times, stops.size());
+		}
+		
+		void freeze() {
+			trimToSize();
+			stops = Collections.unmodifiableList(stops);
+			frozen = true;
+		}
+		
+		Trip rebind(BusNetwork network) { // Frozen copy of a frozen trip with its stops from another version of the network, sharing the times
+			Trip copy = new Trip(id);
+			copy.times = times;
+			copy.last_time = last_time;
+			copy.stops = new ArrayList<Stop>(stops.size());
+			
+			for (Stop stop:stops)
+				copy.stops.add(network.stop_list.get(stop.node_id));
+			
+			copy.freeze();
+			return copy;
+		}
+		
 		public Trip(int id) {
 			this.id = id;
 		}
 		
+		Trip(int id, int capacity) {
+			this.id = id;
+			this.times = new int[Math.max(1, capacity)];
+		}
+		
 		public String toString() {
 			String ret = "Trip " + id + ": ";
 			
 			for (int i = 0; i < stops.size(); i++) {
 				Stop stop = stops.get(i);
-				LocalTime time = times.get(i);
 				
-				ret = ret + "\n	" + time + " @ " + stop.toString();
+				ret = ret + "\n	" + formatTime(times[i]) + " @ " + stop.toString();
 			}
 			
 			return ret;
@@ -297,209 +419,780 @@ public class BusNetwork {
 	
 	// Main BusNetwork class
 	
-	List<Stop> stop_list;
+	StopTable stop_table;
+	List<Stop> stop_list; // One flyweight per row of stop_table
 	List<Trip> trip_list;
-	private TST<Stop> stopSearch;
+	private CompactTST<Stop> stopSearch;
+	private CompactGraph graph;
+	private CompactGraph.Builder pending_edges; // Connections added since the graph was last built
+	private PathSearch search;
+	private ContractionHierarchy hierarchy;
+	private IntIntMap stop_index; // stop_id -> node_id
+	TransferList transfers;
+	private ConnectionScan connection_scan;
+	private Raptor raptor;
+	private TimetableIndex timetable_index;
+	private TokenIndex token_index;
+	private RouteCache route_cache;
+	private boolean pooled_workspaces = false; // Carried over to networks built by applyDelta
+	private volatile boolean frozen = false;
+	
+	public synchronized void freeze() { // Builds everything queries use up front and makes the network read-only, so threads can share it
+		if (frozen) return;
+		
+		buildGraph();
+		getSearch();
+		getConnectionScan();
+		getRaptor();
+		getTimetableIndex();
+		getTokenIndex();
+		getRouteCache();
+		
+		if (trip_list != null) {
+			for (Trip trip:trip_list)
+				trip.freeze();
+			trip_list = Collections.unmodifiableList(trip_list);
+		}
+		
+		stop_list = Collections.unmodifiableList(stop_list);
+		frozen = true;
+	}
+	
+	public boolean isFrozen() {
+		return frozen;
+	}
 	
 	public Stop getStopById(int id) { // Gets stop by the actual bus id it has
-		for (Stop stop:stop_list)
-			if (stop.stop_id == id)
-				return stop;
+		int node_id = stop_index.get(id, -1);
+		if (node_id == -1)
+			return null;
 		
-		return null;
+		return stop_list.get(node_id);
 	}
 	
 	public Stop getNode(int id) { // Gets stop by the internal id we have assigned it (much faster)
 		return stop_list.get(id);
 	}
 	
-	public BusNetwork(List<Stop> stops) {
-		this.stop_list = stops;
-		this.stopSearch = new TST<Stop>();
+	void addConnection(int from, int to, double cost, int type) {
+		if (frozen) throw new IllegalStateException("Can't add connections to a frozen network");
+		
+		if (pending_edges == null) { // Starting from the edges already in the graph
+			pending_edges = new CompactGraph.Builder();
+			
+			if (graph != null)
+				for (int node = 0; node < graph.nodeCount(); node++)
+					for (int e = graph.firstEdge(node); e < graph.endEdge(node); e++)
+						pending_edges.addEdge(node, graph.getTarget(e), graph.getCost(e), graph.getType(e));
+		}
+		
+		pending_edges.addEdge(from, to, cost, type);
+	}
+	
+	public void buildGraph() { // Freezes the connections added so far into the compact graph used for routing
+		if (pending_edges == null && graph != null) return; // Nothing new
+		
+		CompactGraph.Builder builder = pending_edges != null ? pending_edges : new CompactGraph.Builder();
+		
+		this.graph = builder.build(stop_list.size());
+		this.pending_edges = null;
+		this.search = null;
+		this.hierarchy = null;
+		
+		if (route_cache != null)
+			route_cache.invalidate();
+	}
+	
+	public CompactGraph getGraph() {
+		if (graph == null || pending_edges != null)
+			buildGraph();
+		
+		return graph;
+	}
+	
+	public PathSearch getSearch() {
+		if (search == null || pending_edges != null) {
+			search = new PathSearch(getGraph(), stop_table.lats, stop_table.lons); // Sharing the table's columns
+			search.setPooledWorkspaces(pooled_workspaces);
+		}
+		
+		return search;
+	}
+	
+	public synchronized void setPooledWorkspaces(boolean pooled) { // Searches borrow workspaces from a pool rather than keeping one per thread, for callers on virtual threads
+		pooled_workspaces = pooled;
+		
+		if (search != null)
+			search.setPooledWorkspaces(pooled);
+	}
+	
+	public synchronized ContractionHierarchy getContractionHierarchy() { // Builds the hierarchy on first use if it wasn't loaded
+		if (hierarchy == null) {
+			debug_print("Building contraction hierarchy...");
+			hierarchy = ContractionHierarchy.build(getGraph());
+		}
+		
+		return hierarchy;
+	}
+	
+	public synchronized void prepareContractionHierarchy(String file) { // Loads a saved hierarchy if it matches this network, otherwise builds and saves one
+		ContractionHierarchy loaded = ContractionHierarchy.load(file, getGraph());
+		
+		if (loaded != null) {
+			debug_print("Loaded contraction hierarchy from " + file);
+			hierarchy = loaded;
+		} else {
+			getContractionHierarchy().save(file);
+		}
+	}
+	
+	public synchronized ConnectionScan getConnectionScan() { // Builds the timetable connections on first use
+		if (connection_scan == null) {
+			List<Trip> trips = trip_list != null ? trip_list : new ArrayList<Trip>();
+			connection_scan = new ConnectionScan(stop_list, trips, transfers);
+		}
+		
+		return connection_scan;
+	}
+	
+	public Journey getEarliestArrival(Stop from, Stop to, LocalTime departure) { // Earliest arrival leaving at or after departure, null if not reachable that day
+		int seconds = departure.toSecondOfDay();
+		
+		// Trips from the previous service day may still be running after midnight
+		Journey today = getEarliestArrival(from, to, seconds);
+		Journey night = getEarliestArrival(from, to, seconds + DAY_SECONDS);
+		
+		if (night != null && (today == null || night.arrival - DAY_SECONDS < today.arrival))
+			return night;
+		
+		return today;
+	}
+	
+	public Journey getEarliestArrival(Stop from, Stop to, int departure) { // Departure in seconds since the start of the service day
+		return getConnectionScan().earliestArrival(from.node_id, to.node_id, departure);
+	}
+	
+	public synchronized Raptor getRaptor() { // Builds the routes on first use
+		if (raptor == null) {
+			List<Trip> trips = trip_list != null ? trip_list : new ArrayList<Trip>();
+			raptor = new Raptor(stop_list, trips, transfers);
+		}
+		
+		return raptor;
+	}
+	
+	public List<Journey> getJourneyOptions(Stop from, Stop to, LocalTime departure) {
+		return getJourneyOptions(from, to, departure, max_journey_transfers);
+	}
+	
+	public List<Journey> getJourneyOptions(Stop from, Stop to, LocalTime departure, int max_transfers) { // Fastest journey for each number of trips taken, fewest trips first
+		int seconds = departure.toSecondOfDay();
+		
+		List<Journey> today = getJourneyOptions(from, to, seconds, max_transfers);
+		List<Journey> night = getJourneyOptions(from, to, seconds + DAY_SECONDS, max_transfers);
+		if (night.isEmpty()) return today;
+		
+		// Merging both sets, comparing arrivals on the clock
 		
-		for (Stop stop:stops) {
-			this.stopSearch.put(stop.TST_key, stop);
+		List<Journey> all = new ArrayList<Journey>(today);
+		all.addAll(night);
+		all.sort(Comparator.comparingInt(Journey::getTripCount).thenComparingInt(j -> j.arrival - (j.departure >= DAY_SECONDS ? DAY_SECONDS : 0)));
+		
+		List<Journey> ret = new ArrayList<Journey>();
+		int best = Integer.MAX_VALUE;
+		
+		for (Journey journey:all) {
+			int arrival = journey.arrival - (journey.departure >= DAY_SECONDS ? DAY_SECONDS : 0);
+			if (arrival < best) {
+				ret.add(journey);
+				best = arrival;
+			}
+		}
+		
+		return ret;
+	}
+	
+	public List<Journey> getJourneyOptions(Stop from, Stop to, int departure, int max_transfers) { // Departure in seconds since the start of the service day
+		return getRaptor().query(from.node_id, to.node_id, departure, max_transfers);
+	}
+	
+	public BusNetwork(StopTable stops) {
+		this(stops, null);
+		buildStopSearch();
+	}
+	
+	BusNetwork(StopTable stops, CompactGraph graph) { // Without a search trie, for NetworkSnapshot to restore
+		this.stop_table = stops;
+		this.graph = graph;
+		this.stop_list = new ArrayList<Stop>(stops.size());
+		this.stop_index = new IntIntMap(stops.size());
+		
+		for (int i = 0; i < stops.size(); i++) {
+			this.stop_list.add(new Stop(this, i));
+			this.stop_index.put(stops.getStopId(i), i);
 		}
 	}
 	
+	void restore(List<Trip> trips, TransferList transfers, CompactTST<Stop> stop_search) { // Fills in the rest of a network being restored, see NetworkSnapshot
+		this.trip_list = trips;
+		this.transfers = transfers;
+		this.stopSearch = stop_search;
+	}
+	
+	CompactTST<Stop> getStopSearch() {
+		return stopSearch;
+	}
+	
+	private void buildStopSearch() {
+		List<String> keys = new ArrayList<String>(stop_list.size());
+		for (Stop stop:stop_list)
+			keys.add(stop.getKey());
+		
+		this.stopSearch = new CompactTST<Stop>(keys, stop_list);
+	}
+	
 	public List<Stop> searchStops(String search_term) {
-		List<Stop> ret = new ArrayList<Stop>();
+		long start = System.nanoTime();
+		List<Stop> ret = new ArrayList<Stop>(stopSearch.valuesWithPrefix(search_term));
 		
-		 for (Object key: stopSearch.keysWithPrefix(search_term)) {
-			 Stop stop = (Stop) stopSearch.get((String) key);
-			 ret.add(stop);
-		 }
+		NetworkMetrics.get().search_latency.record(System.nanoTime() - start);
+		return ret;
+	}
+	
+	public List<Stop> searchStops(String search_term, int limit) { // At most limit stops, in the same order, for autocompletion
+		long start = System.nanoTime();
+		List<Stop> matches = stopSearch.valuesWithPrefix(search_term);
+		List<Stop> ret = new ArrayList<Stop>(matches.subList(0, Math.max(0, Math.min(limit, matches.size()))));
 		
+		NetworkMetrics.get().search_latency.record(System.nanoTime() - start);
 		return ret;
 	}
 	
-	private static int BinarySearch(List<Trip> list, LocalTime target, int first, int last) {
-		int mid = (first + last) / 2;
+	public int countStops(String search_term) { // Number of stops searchStops finds, without listing them
+		return stopSearch.valuesWithPrefix(search_term).size();
+	}
+	
+	public List<Stop> searchStopsFuzzy(String search_term, int max_distance) { // Stops starting with up to max_distance typos, closest first
+		long start = System.nanoTime();
+		List<Stop> ret = new ArrayList<Stop>(stopSearch.valuesWithinDistance(search_term, max_distance));
 		
-		while (first <= last) {
-			if (list.get(mid).last_time.compareTo(target) < 0)
-				first = mid+1;
-			else if (list.get(mid).last_time.equals(target))
-				return mid;
-			else
-				last = mid-1;
-			
-			mid = (first + last) / 2;
-		}
+		NetworkMetrics.get().fuzzy_search_latency.record(System.nanoTime() - start);
+		return ret;
+	}
+	
+	public List<Stop> searchStopsFuzzy(String search_term) { // Allowing more typos the longer the search term
+		int length = search_term.length();
+		return searchStopsFuzzy(search_term, length <= 2 ? 0 : length <= 5 ? 1 : 2);
+	}
+	
+	public synchronized TokenIndex getTokenIndex() { // Builds the index on first use
+		if (token_index == null)
+			token_index = new TokenIndex(stop_table);
 		
-		return -1; // Didn't find element
+		return token_index;
 	}
 	
-	public List<Trip> getTripsAtTime(LocalTime time) {
-		int index = BinarySearch(trip_list,time,0,trip_list.size()-1);
-		if (index == -1) // None found, return empty list
-			return new ArrayList<Trip>();
+	public List<Stop> searchStopsByToken(String search_term) { // Stops matching every word of the search term anywhere in their name or description, by name
+		long start = System.nanoTime();
+		
+		List<Stop> ret = new ArrayList<Stop>();
+		for (int node:getTokenIndex().search(search_term))
+			ret.add(stop_list.get(node));
 		
-		int start_index = index;
-		while (trip_list.get(start_index-1).last_time.equals(time))
-			start_index--;
+		ret.sort(Comparator.comparing(Stop::getKey));
 		
-		int end_index = index;
-		while (trip_list.get(end_index).last_time.equals(time))
-			end_index++;
+		NetworkMetrics.get().token_search_latency.record(System.nanoTime() - start);
+		return ret;
+	}
+	
+	public List<Stop> searchStops(String search_term, SearchType type) {
+		switch (type) {
+			case FUZZY: return searchStopsFuzzy(search_term);
+			case TOKEN: return searchStopsByToken(search_term);
+			default: return searchStops(search_term);
+		}
+	}
+	
+	public synchronized TimetableIndex getTimetableIndex() { // Builds the index on first use
+		if (timetable_index == null) {
+			List<Trip> trips = trip_list != null ? trip_list : new ArrayList<Trip>();
+			timetable_index = new TimetableIndex(trips);
+		}
 		
-		List<Trip> list = new ArrayList<Trip>();
+		return timetable_index;
+	}
+	
+	public List<Trip> getTripsAtTime(LocalTime time) { // Read-only list of the trips ending at time, on either side of midnight
+		return getTripsBetween(time, time);
+	}
+	
+	public List<Trip> getTripsBetween(LocalTime from, LocalTime to) { // Read-only list of the trips ending from one time to another, both inclusive, wrapping past midnight if to is before from
+		long start = System.nanoTime();
+		List<Trip> ret = findTripsBetween(from, to);
 		
-		for (int i = start_index; i < end_index; i++)
-			list.add(trip_list.get(i));
+		NetworkMetrics.get().trips_latency.record(System.nanoTime() - start);
+		return ret;
+	}
+	
+	private List<Trip> findTripsBetween(LocalTime from, LocalTime to) { // A window running past midnight wraps, a view with no copying
+		return getTimetableIndex().tripsBetweenClockTimes(from.toSecondOfDay(), to.toSecondOfDay());
+	}
+	
+	public List<Trip> getTripsBetween(int from, int to) { // Seconds since the start of the service day, a view with no copying
+		return getTimetableIndex().tripsBetween(from, to);
+	}
+	
+	public Iterator<Trip> iterateTripsBetween(LocalTime from, LocalTime to) {
+		return getTripsBetween(from, to).iterator();
+	}
+	
+	// Deltas
+	
+	private Stop requireStop(int stop_id) {
+		Stop stop = getStopById(stop_id);
+		if (stop == null) throw new IllegalArgumentException("No stop with id " + stop_id);
 		
-		return list;
+		return stop;
 	}
 	
-	public static BusNetwork networkFromFiles(String stops_file, String transfers_file, String times_file) {
-		debug_print("Getting network from files...");
+	public BusNetwork applyDelta(NetworkDelta delta) { // New frozen network with the delta applied, sharing what it doesn't change with this one, which must be frozen and is left as it was
+		if (!frozen) throw new IllegalStateException("Deltas can only be applied to a frozen network");
+		long start = System.nanoTime();
 		
-		// Initialising readers
+		// Stops, replaced in place or appended, so node ids carry over
 		
-		FileReader stops_reader;
-		FileReader transfers_reader;
-		FileReader times_reader;
+		StopTable rows = delta.stops.build();
+		int[] nodes = new int[rows.size()];
+		IntIntMap added_stops = new IntIntMap(rows.size());
 		
-		try {
-			stops_reader = new FileReader(stops_file);
-			transfers_reader = new FileReader(transfers_file);
-			times_reader = new FileReader(times_file);
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-			return null;
+		for (int r = 0; r < rows.size(); r++) {
+			int stop_id = rows.getStopId(r);
+			int node = stop_index.get(stop_id, added_stops.get(stop_id, -1));
+			
+			if (node == -1) {
+				node = stop_table.size() + added_stops.size();
+				added_stops.put(stop_id, node);
+			}
+			
+			nodes[r] = node;
 		}
 		
-		// Skipping headers
+		StopTable table = rows.size() > 0 ? stop_table.withRows(nodes, rows) : stop_table;
+		BusNetwork next = new BusNetwork(table, null);
+		next.pooled_workspaces = pooled_workspaces;
 		
-		stops_reader.nextLine();
-		times_reader.nextLine();
-		transfers_reader.nextLine();
+		boolean[] affected = new boolean[table.size()]; // Nodes whose outgoing edges change
 		
-		// Reading stops
-		debug_print("Creating stops list...");
+		// Transfers, kept in file order with additions at the end
 		
-		List<Stop> stops = new ArrayList<Stop>();
+		TransferList old_transfers = transfers != null ? transfers : new TransferList();
+		TransferList next_transfers = old_transfers;
 		
-		for (int i = 0; true; i++) {
-			String str = stops_reader.nextLine();
-			if (str == null) break;
+		if (!delta.added_transfers.isEmpty() || !delta.removed_transfers.isEmpty()) {
+			next_transfers = new TransferList();
+			Set<Long> unmatched = new HashSet<Long>(delta.removed_transfers);
+			
+			for (int i = 0; i < old_transfers.count; i++) {
+				long key = NetworkDelta.transferKey(table.getStopId(old_transfers.from[i]), table.getStopId(old_transfers.to[i]));
+				
+				if (delta.removed_transfers.contains(key)) {
+					unmatched.remove(key);
+					affected[old_transfers.from[i]] = true;
+				} else {
+					next_transfers.add(old_transfers.from[i], old_transfers.to[i], old_transfers.type[i], old_transfers.min_time[i], old_transfers.cost[i]);
+				}
+			}
 			
-			String data[] = str.split(",");
+			for (long key:unmatched)
+				throw new IllegalArgumentException("No transfer from stop " + (key >>> 32) + " to stop " + (int) key);
 			
-			int stop_id = Integer.parseInt(data[0]);
-			int stop_code;
-			try {
-				stop_code = Integer.parseInt(data[1]);
-			} catch (NumberFormatException e) {
-				stop_code = -1;
+			for (int[] transfer:delta.added_transfers) {
+				Stop from = next.requireStop(transfer[0]);
+				Stop to = next.requireStop(transfer[1]);
+				
+				next_transfers.add(from.node_id, to.node_id, transfer[2], transfer[3], transferCost(transfer[2], transfer[3]));
+				affected[from.node_id] = true;
 			}
+		}
+		
+		// Trips, merging the new ones into the sorted list so it isn't sorted again
+		
+		TripComparator comparator = new TripComparator();
+		List<Trip> added_trips = new ArrayList<Trip>(delta.added_trips.size());
+		Set<Integer> added_ids = new HashSet<Integer>();
+		
+		for (NetworkDelta.TripRows trip_rows:delta.added_trips) {
+			Trip trip = new Trip(trip_rows.id, trip_rows.count);
+			
+			for (int i = 0; i < trip_rows.count; i++) {
+				if (i > 0) affected[trip.getLastStop().node_id] = true;
+				trip.addStop(next.requireStop(trip_rows.stop_ids[i]), trip_rows.times[i]);
+			}
+			
+			trip.freeze();
+			added_trips.add(trip);
+			added_ids.add(trip.id);
+		}
+		
+		added_trips.sort(comparator);
+		
+		List<Trip> old_trips = trip_list != null ? trip_list : new ArrayList<Trip>();
+		List<Trip> next_trips = new ArrayList<Trip>(old_trips.size() + added_trips.size());
+		int[] positions = new int[old_trips.size()]; // Index in next_trips of each old trip, -1 if removed
+		Set<Integer> unmatched = new HashSet<Integer>(delta.removed_trips);
+		int a = 0;
+		
+		for (int t = 0; t < old_trips.size(); t++) {
+			Trip trip = old_trips.get(t);
 			
-			String name = data[2];
-			String desc = data[3];
+			if (delta.removed_trips.contains(trip.id)) {
+				positions[t] = -1;
+				unmatched.remove(trip.id);
+				for (int i = 0; i + 1 < trip.stops.size(); i++)
+					affected[trip.stops.get(i).node_id] = true;
+				continue;
+			}
 			
-			double lat = Double.parseDouble(data[4]);
-			double lon = Double.parseDouble(data[5]);
+			if (added_ids.contains(trip.id)) throw new IllegalArgumentException("Trip " + trip.id + " already exists, remove it before adding it again");
 			
-			String zone = data[6];
+			while (a < added_trips.size() && comparator.compare(added_trips.get(a), trip) < 0)
+				next_trips.add(added_trips.get(a++));
 			
-			stops.add(new Stop(i, stop_id, stop_code, name, desc, lat, lon, zone));
+			positions[t] = next_trips.size();
+			next_trips.add(trip.rebind(next));
 		}
 		
-		// Connecting direct routes
-		debug_print("Connecting direct routes...");
+		while (a < added_trips.size())
+			next_trips.add(added_trips.get(a++));
 		
-		BusNetwork network = new BusNetwork(stops);
+		for (int trip_id:unmatched)
+			throw new IllegalArgumentException("No trip with id " + trip_id);
 		
-		Stop last_stop = null;
+		// Routing graph, rebuilding only the slices of affected nodes
 		
-		network.trip_list = new ArrayList<Trip>();
-		Trip current_trip = new Trip(-1); // Invalid id so is guaranteed to be different
+		int rebuilt = 0;
+		for (boolean changed:affected)
+			if (changed) rebuilt++;
 		
-		while (true) {
-			String str = times_reader.nextLine();
-			if (str == null) break;
+		if (rebuilt == 0 && table.size() == stop_table.size()) {
+			next.graph = graph;
+			next.hierarchy = hierarchy;
+			
+			if (table.lats == stop_table.lats && table.lons == stop_table.lons)
+				next.search = search; // Same graph and coordinates
+		} else {
+			CompactGraph.Builder builder = new CompactGraph.Builder();
 			
-			String data[] = str.split(",");
+			for (Trip trip:next_trips) // Collecting only the hops that leave an affected node
+				for (int i = 0; i + 1 < trip.stops.size(); i++)
+					if (affected[trip.stops.get(i).node_id])
+						builder.addEdge(trip.stops.get(i).node_id, trip.stops.get(i+1).node_id, direct_route_cost, 0);
 			
-			int trip_id = Integer.parseInt(data[0]);
-			int stop_id = Integer.parseInt(data[3]);
+			for (int i = 0; i < next_transfers.count; i++)
+				if (affected[next_transfers.from[i]])
+					builder.addEdge(next_transfers.from[i], next_transfers.to[i], next_transfers.cost[i], 1);
 			
-			LocalTime arrival_time;
-			try {
-				String raw_t = data[1];
-				if (raw_t.charAt(0) == ' ')
-					raw_t = "0" + raw_t.substring(1);
+			next.graph = graph.withSlices(affected, builder.build(table.size()));
+		}
+		
+		// Stop search, sharing the trie if no keys changed and the token index if no text did
+		
+		if (table.keys == stop_table.keys)
+			next.stopSearch = stopSearch.mapValues(stop -> next.stop_list.get(stop.node_id));
+		else
+			next.buildStopSearch();
+		
+		if (table.names == stop_table.names && table.descs == stop_table.descs)
+			next.token_index = token_index;
+		
+		// Timetable queries, shared if the timetable is unchanged, otherwise merging the new trips' connections into the old ones
+		
+		if (delta.added_trips.isEmpty() && delta.removed_trips.isEmpty() && next_transfers == old_transfers && table.size() == stop_table.size()) {
+			next.connection_scan = new ConnectionScan(getConnectionScan(), next.stop_list);
+			next.raptor = new Raptor(getRaptor(), next.stop_list);
+		} else {
+			next.connection_scan = new ConnectionScan(getConnectionScan(), next.stop_list, next_trips, positions, next_transfers);
+		}
+		
+		next.trip_list = next_trips;
+		next.transfers = next_transfers;
+		next.freeze(); // Building the rest from the new trips
+		
+		debug_print("Applied delta of " + delta + ", rebuilding " + rebuilt + " of " + table.size() + " adjacency slices (" + elapsed(start) + ")");
+		return next;
+	}
+	
+	// Loading
+	
+	private static int load_parallelism = Runtime.getRuntime().availableProcessors();
+	
+	private static class TimesChunk { // Trips and direct route edges parsed from one slice of stop_times.txt
+		List<Trip> trips = new ArrayList<Trip>();
+		
+		int[] edge_from = new int[64]; // Node ids
+		int[] edge_to = new int[64];
+		int edge_count = 0;
+		
+		void addEdge(int from, int to) {
+			if (edge_count == edge_from.length) {
+				edge_from = Arrays.copyOf(edge_from, edge_count * 2);
+				edge_to = Arrays.copyOf(edge_to, edge_count * 2);
+			}
+			
+			edge_from[edge_count] = from;
+			edge_to[edge_count] = to;
+			edge_count++;
+		}
+	}
+	
+	static class TransferList { // Transfers as read from transfers.txt, in file order, kept for timetable queries
+		int[] from = new int[64]; // Node ids
+		int[] to = new int[64];
+		int[] type = new int[64];
+		int[] min_time = new int[64]; // Seconds, 0 if not given
+		double[] cost = new double[64];
+		int count = 0;
+		
+		void add(int from_node, int to_node, int transfer_type, int min_seconds, double edge_cost) {
+			if (count == from.length) {
+				from = Arrays.copyOf(from, count * 2);
+				to = Arrays.copyOf(to, count * 2);
+				type = Arrays.copyOf(type, count * 2);
+				min_time = Arrays.copyOf(min_time, count * 2);
+				cost = Arrays.copyOf(cost, count * 2);
+			}
+			
+			from[count] = from_node;
+			to[count] = to_node;
+			type[count] = transfer_type;
+			min_time[count] = min_seconds;
+			cost[count] = edge_cost;
+			count++;
+		}
+		
+		int[] changeTimes(int node_count) { // Minimum time to change trips at each stop, from transfers to the same stop
+			int[] change_time = new int[node_count];
+			
+			for (int i = 0; i < count; i++)
+				if (type[i] != 3 && from[i] == to[i])
+					change_time[from[i]] = Math.max(change_time[from[i]], min_time[i]);
+			
+			return change_time;
+		}
+		
+		int[][] walks(int node_count) { // Transfers between different stops as {offsets, targets, times} in CSR form, skipping type 3 (not possible)
+			int[] offsets = new int[node_count+1];
+			for (int i = 0; i < count; i++)
+				if (type[i] != 3 && from[i] != to[i])
+					offsets[from[i]+1]++;
+			for (int i = 0; i < node_count; i++)
+				offsets[i+1] += offsets[i];
+			
+			int[] next = Arrays.copyOf(offsets, node_count);
+			int[] targets = new int[offsets[node_count]];
+			int[] times = new int[offsets[node_count]];
+			
+			for (int i = 0; i < count; i++) {
+				if (type[i] == 3 || from[i] == to[i]) continue;
 				
-				arrival_time = LocalTime.parse(raw_t);
-			} catch (java.time.format.DateTimeParseException e) {
-				arrival_time = LocalTime.MAX;
+				int p = next[from[i]]++;
+				targets[p] = to[i];
+				times[p] = min_time[i];
 			}
 			
+			return new int[][] {offsets, targets, times};
+		}
+	}
+	
+	private static String elapsed(long start_nanos) {
+		return (System.nanoTime() - start_nanos) / 1000000 + " ms";
+	}
+	
+	private static TimesChunk readTimes(BusNetwork network, MappedCsvReader times_reader) { // Chunks always start on a new trip
+		TimesChunk chunk = new TimesChunk();
+		
+		Stop last_stop = null;
+		Trip current_trip = new Trip(-1); // Invalid id so is guaranteed to be different
+		
+		while (times_reader.nextLine()) {
+			int trip_id = times_reader.nextInt();
+			int arrival_seconds = times_reader.nextTime();
+			times_reader.skipField(); // Departure time
+			int stop_id = times_reader.nextInt();
+			
+			int arrival_time = arrival_seconds >= 0 ? arrival_seconds : Trip.NO_TIME; // Past midnight is kept as 24:00 and on
+			
 			Stop current_stop = network.getStopById(stop_id);
 			
 			if (current_trip.id != trip_id) { // New trip
 				current_trip = new Trip(trip_id);
-				network.trip_list.add(current_trip);
+				chunk.trips.add(current_trip);
 			} else { // Continue current trip
-				last_stop.connect(current_stop, BusNetwork.direct_route_cost,0);
+				chunk.addEdge(last_stop.node_id, current_stop.node_id);
 			}
 			
 			current_trip.addStop(current_stop, arrival_time);
 			last_stop = current_stop;
 		}
 		
-		network.trip_list.sort(new TripComparator());
+		return chunk;
+	}
+	
+	private static TransferList readTransfers(BusNetwork network, MappedCsvReader transfers_reader) {
+		TransferList transfers = new TransferList();
+		
+		while (transfers_reader.nextLine()) {
+			int from_stop_id = transfers_reader.nextInt();
+			int to_stop_id = transfers_reader.nextInt();
+			
+			Stop from_stop = network.getStopById(from_stop_id);
+			Stop to_stop = network.getStopById(to_stop_id);
+			
+			int transfer_type = transfers_reader.nextInt();
+			double min_time = transfers_reader.isEmptyField() ? 0 : transfers_reader.nextDouble();
+			
+			transfers.add(from_stop.node_id, to_stop.node_id, transfer_type, (int) min_time, transferCost(transfer_type, min_time));
+		}
+		
+		return transfers;
+	}
+	
+	private static double transferCost(int transfer_type, double min_time) { // Cost of a transfer's edge in the routing graph
+		if (transfer_type == 0)
+			return BusNetwork.direct_transfer_cost;
+		else if (transfer_type == 1)
+			return min_time * BusNetwork.transfer_time_cost;
 		
-		// Connecting transfers
-		debug_print("Connecting transfers...");
+		return 0;
+	}
+	
+	public static BusNetwork networkFromFiles(String stops_file, String transfers_file, String times_file) {
+		debug_print("Getting network from files...");
+		NetworkMetrics metrics = NetworkMetrics.get();
+		long load_start = System.nanoTime();
 		
-		while (true) {
-			String str = transfers_reader.nextLine();
-			if (str == null) break;
+		// Initialising readers
+		
+		MappedCsvReader stops_reader;
+		MappedCsvReader transfers_reader;
+		MappedCsvReader times_reader;
+		
+		try {
+			stops_reader = new MappedCsvReader(stops_file);
+			transfers_reader = new MappedCsvReader(transfers_file);
+			times_reader = new MappedCsvReader(times_file);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+		
+		// Skipping headers
+		
+		stops_reader.nextLine();
+		times_reader.nextLine();
+		transfers_reader.nextLine();
+		
+		// Reading stops, which everything else depends on
+		debug_print("Creating stops list...");
+		long phase_start = System.nanoTime();
+		
+		StopTable.Builder stops = new StopTable.Builder();
+		
+		while (stops_reader.nextLine()) {
+			int stop_id = stops_reader.nextInt();
+			int stop_code = stops_reader.nextInt(-1); // Some stops have no code
 			
-			String data[] = str.split(",");
+			String name = stops_reader.nextString();
+			String desc = stops_reader.nextString();
 			
-			int from_stop_id = Integer.parseInt(data[0]);
-			int to_stop_id = Integer.parseInt(data[1]);
+			double lat = stops_reader.nextDouble();
+			double lon = stops_reader.nextDouble();
 			
-			Stop from_stop = network.getStopById(from_stop_id);
-			Stop to_stop = network.getStopById(to_stop_id);
+			String zone = stops_reader.nextString();
 			
-			int transfer_type = Integer.parseInt(data[2]);
-			double cost = 0;
+			stops.add(stop_id, stop_code, name, desc, lat, lon, zone);
+		}
+		
+		BusNetwork network = new BusNetwork(stops.build());
+		debug_print("Read " + network.stop_list.size() + " stops, " + network.stop_table.stringCount() + " distinct strings (" + elapsed(phase_start) + ")");
+		metrics.recordLoadPhase("stops", System.nanoTime() - phase_start, network.stop_list.size());
+		
+		// Reading stop times in chunks split on trip boundaries, with transfers alongside
+		debug_print("Connecting direct routes and transfers...");
+		phase_start = System.nanoTime();
+		
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		
+		ForkJoinTask<TransferList> transfers_task = pool.submit(() -> {
+			long transfers_start = System.nanoTime();
+			TransferList read = readTransfers(network, transfers_reader);
 			
-			if (transfer_type == 0)
-				cost = BusNetwork.direct_transfer_cost;
-			else if (transfer_type == 1) {
-				double min_time = Double.parseDouble(data[3]);
-				cost = min_time * BusNetwork.transfer_time_cost;
-			}
+			metrics.recordLoadPhase("transfers", System.nanoTime() - transfers_start, read.count);
+			return read;
+		});
+		
+		int[] bounds = times_reader.splitOnFirstField(load_parallelism * 4);
+		List<ForkJoinTask<TimesChunk>> times_tasks = new ArrayList<ForkJoinTask<TimesChunk>>();
+		
+		for (int i = 0; i + 1 < bounds.length; i++) {
+			MappedCsvReader chunk_reader = times_reader.slice(bounds[i], bounds[i+1]);
+			times_tasks.add(pool.submit(() -> readTimes(network, chunk_reader)));
+		}
+		
+		List<TimesChunk> chunks = new ArrayList<TimesChunk>();
+		long stop_time_rows = 0;
+		
+		for (ForkJoinTask<TimesChunk> task:times_tasks) {
+			TimesChunk chunk = task.join();
+			chunks.add(chunk);
+			stop_time_rows += chunk.trips.size() + chunk.edge_count; // A row either starts a trip or continues one
+		}
+		
+		metrics.recordLoadPhase("stop_times", System.nanoTime() - phase_start, stop_time_rows);
+		
+		TransferList transfers = transfers_task.join();
+		debug_print("Parsed stop times in " + chunks.size() + " chunks and transfers (" + elapsed(phase_start) + ")");
+		
+		// Merging in file order, so the result matches a sequential read
+		phase_start = System.nanoTime();
+		
+		network.trip_list = new ArrayList<Trip>();
+		int direct_count = 0;
+		
+		for (TimesChunk chunk:chunks) {
+			for (Trip trip:chunk.trips)
+				trip.trimToSize();
+			network.trip_list.addAll(chunk.trips);
 			
-			from_stop.connect(to_stop, cost, 1);
+			for (int i = 0; i < chunk.edge_count; i++)
+				network.addConnection(chunk.edge_from[i], chunk.edge_to[i], BusNetwork.direct_route_cost, 0);
+			
+			direct_count += chunk.edge_count;
 		}
 		
+		for (int i = 0; i < transfers.count; i++)
+			network.addConnection(transfers.from[i], transfers.to[i], transfers.cost[i], 1);
+		
+		network.transfers = transfers;
+		
+		Trip[] sorted_trips = network.trip_list.toArray(new Trip[0]);
+		Arrays.parallelSort(sorted_trips, new TripComparator());
+		network.trip_list = new ArrayList<Trip>(Arrays.asList(sorted_trips));
+		
+		debug_print("Merged " + network.trip_list.size() + " trips, " + direct_count + " direct routes and " + transfers.count + " transfers (" + elapsed(phase_start) + ")");
+		metrics.recordLoadPhase("merge", System.nanoTime() - phase_start, network.trip_list.size());
+		
+		// Building routing graph
+		debug_print("Building routing graph...");
+		phase_start = System.nanoTime();
+		
+		network.buildGraph();
+		debug_print("Built routing graph (" + elapsed(phase_start) + ")");
+		metrics.recordLoadPhase("graph", System.nanoTime() - phase_start, network.graph.edgeCount());
+		
 		// Returning network
-		debug_print("BusNetwork created successfully!");
+		debug_print("BusNetwork created successfully! (" + elapsed(load_start) + ")");
+		metrics.recordLoadPhase("total", System.nanoTime() - load_start, network.stop_list.size() + stop_time_rows + transfers.count);
 		
 		return network;
 	}
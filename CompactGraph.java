@@ -0,0 +1,237 @@
+import java.util.Arrays;
+
+/**
+ *  The {@code CompactGraph} class is a frozen, compressed sparse row (CSR) view of the
+ *  connections in a {@link BusNetwork}.
+ *  The outgoing edges of node {@code i} are stored at indices
+ *  {@code offsets[i]} (inclusive) to {@code offsets[i+1]} (exclusive) of the
+ *  parallel {@code targets}, {@code costs} and {@code types} arrays.
+ *  <p>
+ *  Parallel edges with the same target and type (one per trip serving a hop) are
+ *  collapsed into a single edge with the cheapest cost, and each node's edges are
+ *  sorted by target.
+ */
+public class CompactGraph {
+	public static final int TYPE_DIRECT = 0;
+	public static final int TYPE_TRANSFER = 1;
+	private static final int TYPE_COUNT = 2;
+
+	final int[] offsets;
+	final int[] targets;
+	final double[] costs;
+	final byte[] types;
+
+	CompactGraph(int[] offsets, int[] targets, double[] costs, byte[] types) {
+		this.offsets = offsets;
+		this.targets = targets;
+		this.costs = costs;
+		this.types = types;
+	}
+
+	public int nodeCount() {
+		return offsets.length - 1;
+	}
+
+	public int edgeCount() {
+		return targets.length;
+	}
+
+	public int firstEdge(int node) {
+		return offsets[node];
+	}
+
+	public int endEdge(int node) { // Exclusive
+		return offsets[node+1];
+	}
+
+	public int getTarget(int edge) {
+		return targets[edge];
+	}
+
+	public double getCost(int edge) {
+		return costs[edge];
+	}
+
+	public int getType(int edge) {
+		return types[edge];
+	}
+
+	public int getEdge(int from, int to) { // Cheapest edge between two nodes, or -1 if not connected
+		int best = -1;
+		for (int e = offsets[from]; e < offsets[from+1]; e++) {
+			if (targets[e] == to && (best == -1 || costs[e] < costs[best]))
+				best = e;
+		}
+
+		return best;
+	}
+
+	public long fingerprint() { // Hash of the full structure, used to check that saved data still matches
+		long h = 1125899906842597L;
+		for (int offset:offsets)
+			h = 31 * h + offset;
+		for (int e = 0; e < targets.length; e++) {
+			h = 31 * h + targets[e];
+			h = 31 * h + Double.doubleToLongBits(costs[e]);
+			h = 31 * h + types[e];
+		}
+
+		return h;
+	}
+
+	public CompactGraph reverse() { // Same edges pointing the other way, for backward searches
+		int node_count = nodeCount();
+		int edge_count = edgeCount();
+
+		int[] rev_offsets = new int[node_count+1];
+		for (int e = 0; e < edge_count; e++)
+			rev_offsets[targets[e]+1]++;
+		for (int i = 0; i < node_count; i++)
+			rev_offsets[i+1] += rev_offsets[i];
+
+		int[] next = Arrays.copyOf(rev_offsets, node_count);
+		int[] rev_targets = new int[edge_count];
+		double[] rev_costs = new double[edge_count];
+		byte[] rev_types = new byte[edge_count];
+
+		for (int node = 0; node < node_count; node++) { // Visiting sources in order keeps each slice sorted
+			for (int e = offsets[node]; e < offsets[node+1]; e++) {
+				int p = next[targets[e]]++;
+				rev_targets[p] = node;
+				rev_costs[p] = costs[e];
+				rev_types[p] = types[e];
+			}
+		}
+
+		return new CompactGraph(rev_offsets, rev_targets, rev_costs, rev_types);
+	}
+
+	public CompactGraph withSlices(boolean[] replaced, CompactGraph replacement) { // Copy taking the edges of replaced nodes, and of any nodes past this graph's, from replacement
+		int node_count = replacement.nodeCount();
+
+		int[] new_offsets = new int[node_count+1];
+		for (int node = 0; node < node_count; node++) {
+			CompactGraph source = node < nodeCount() && !replaced[node] ? this : replacement;
+			new_offsets[node+1] = new_offsets[node] + source.endEdge(node) - source.firstEdge(node);
+		}
+
+		int edge_count = new_offsets[node_count];
+		int[] new_targets = new int[edge_count];
+		double[] new_costs = new double[edge_count];
+		byte[] new_types = new byte[edge_count];
+
+		for (int node = 0; node < node_count; node++) { // Unchanged slices are copied as they are, already collapsed and sorted
+			CompactGraph source = node < nodeCount() && !replaced[node] ? this : replacement;
+			int start = source.firstEdge(node);
+			int length = source.endEdge(node) - start;
+
+			System.arraycopy(source.targets, start, new_targets, new_offsets[node], length);
+			System.arraycopy(source.costs, start, new_costs, new_offsets[node], length);
+			System.arraycopy(source.types, start, new_types, new_offsets[node], length);
+		}
+
+		return new CompactGraph(new_offsets, new_targets, new_costs, new_types);
+	}
+
+	// Builder
+
+	public static class Builder {
+		private int[] from = new int[16];
+		private int[] to = new int[16];
+		private double[] cost = new double[16];
+		private byte[] type = new byte[16];
+		private int size = 0;
+
+		public void addEdge(int from_node, int to_node, double edge_cost, int edge_type) {
+			if (size == from.length) {
+				int capacity = size * 2;
+				from = Arrays.copyOf(from, capacity);
+				to = Arrays.copyOf(to, capacity);
+				cost = Arrays.copyOf(cost, capacity);
+				type = Arrays.copyOf(type, capacity);
+			}
+
+			from[size] = from_node;
+			to[size] = to_node;
+			cost[size] = edge_cost;
+			type[size] = (byte) edge_type;
+			size++;
+		}
+
+		public CompactGraph build(int node_count) {
+			// Counting sort edges by source node
+
+			int[] offsets = new int[node_count+1];
+			for (int e = 0; e < size; e++)
+				offsets[from[e]+1]++;
+			for (int i = 0; i < node_count; i++)
+				offsets[i+1] += offsets[i];
+
+			int[] next = Arrays.copyOf(offsets, node_count);
+			int[] targets = new int[size];
+			double[] costs = new double[size];
+			byte[] types = new byte[size];
+
+			for (int e = 0; e < size; e++) {
+				int p = next[from[e]]++;
+				targets[p] = to[e];
+				costs[p] = cost[e];
+				types[p] = type[e];
+			}
+
+			// Collapsing parallel edges, keeping the cheapest of each (target, type)
+
+			int[] seen = new int[node_count * TYPE_COUNT];
+			Arrays.fill(seen, -1);
+
+			int written = 0;
+			int read = 0;
+			for (int node = 0; node < node_count; node++) {
+				int start = written;
+				int end = offsets[node+1];
+
+				for (; read < end; read++) {
+					int key = targets[read] * TYPE_COUNT + types[read];
+					int slot = seen[key];
+
+					if (slot >= start) { // Already have this edge for the current node
+						if (costs[read] < costs[slot])
+							costs[slot] = costs[read];
+						continue;
+					}
+
+					seen[key] = written;
+					targets[written] = targets[read];
+					costs[written] = costs[read];
+					types[written] = types[read];
+					written++;
+				}
+
+				sortSlice(targets, costs, types, start, written);
+				offsets[node+1] = written;
+			}
+
+			return new CompactGraph(offsets, Arrays.copyOf(targets, written), Arrays.copyOf(costs, written), Arrays.copyOf(types, written));
+		}
+
+		private static void sortSlice(int[] targets, double[] costs, byte[] types, int start, int end) { // Insertion sort, slices are short
+			for (int i = start + 1; i < end; i++) {
+				int t = targets[i];
+				double c = costs[i];
+				byte ty = types[i];
+
+				int j = i - 1;
+				while (j >= start && (targets[j] > t || (targets[j] == t && types[j] > ty))) {
+					targets[j+1] = targets[j];
+					costs[j+1] = costs[j];
+					types[j+1] = types[j];
+					j--;
+				}
+
+				targets[j+1] = t;
+				costs[j+1] = c;
+				types[j+1] = ty;
+			}
+		}
+	}
+}
@@ -0,0 +1,609 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
+
+/**
+ *  The {@code CompactTST} class is an immutable symbol table of key-value pairs,
+ *  with string keys and generic values, built once from a fixed set of keys.
+ *  It supports the <em>get</em>, <em>contains</em> and <em>size</em> methods of
+ *  {@link TST}, along with its character-based methods for finding the
+ *  <em>longest prefix</em> of a query, the keys that <em>start with</em> a
+ *  prefix and the keys that <em>match</em> a pattern.
+ *  <p>
+ *  This implementation is a ternary search trie whose nodes are stored in
+ *  parallel primitive arrays rather than as objects: node {@code x} has the
+ *  character {@code chars[x]}, its subtries are at {@code left[x]},
+ *  {@code mid[x]} and {@code right[x]} ({@code -1} if empty), and its value is
+ *  {@code values[vals[x]]} ({@code vals[x]} is {@code -1} if no key ends there).
+ *  Keys are inserted in median order of the sorted key set, which keeps the
+ *  left and right links balanced, and all lookups and enumerations are
+ *  iterative, using an explicit stack in place of recursion.
+ *  <p>
+ *  When the same key is given more than once, the last value given is kept, as
+ *  with repeated calls to {@link TST#put}.
+ *  <p>
+ *  Values are stored in the sorted order of their keys, so the values of all
+ *  keys starting with a prefix are a contiguous run of {@code values}. This lets
+ *  {@link #valuesWithPrefix} return them as a view after two walks down the
+ *  trie, without building any key strings.
+ *  <p>
+ *  {@link #valuesWithinDistance} is a typo tolerant version of
+ *  {@link #valuesWithPrefix}. It walks the trie carrying one row of the
+ *  Levenshtein table per character of the key, and drops a subtrie as soon as
+ *  no key in it can come within the allowed number of edits.
+ */
+public class CompactTST<Value> {
+	private int n; // size
+
+	private char[] chars;
+	private int[] left;
+	private int[] mid;
+	private int[] right;
+	private int[] vals; // Index into values, -1 if no key ends here
+	private Value[] values;
+
+	private int nodes; // Nodes in use
+
+	private CompactTST() {
+	}
+
+	/**
+	 * Initializes a symbol table holding the given key-value pairs.
+	 * @param keys the keys
+	 * @param items the value associated with each key, in the same order
+	 * @throws IllegalArgumentException if the lists differ in length, or a key
+	 *     is {@code null} or empty
+	 */
+	@SuppressWarnings("unchecked")
+	public CompactTST(List<String> keys, List<Value> items) {
+		if (keys.size() != items.size()) {
+			throw new IllegalArgumentException("keys and values differ in length");
+		}
+
+		// Sorting key positions, ties kept in input order so the last of a repeated key wins
+		Integer[] order = new Integer[keys.size()];
+		for (int i = 0; i < order.length; i++) {
+			String key = keys.get(i);
+			if (key == null || key.length() == 0) throw new IllegalArgumentException("key must have length >= 1");
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.comparing(keys::get));
+
+		int unique = 0;
+		for (int i = 0; i < order.length; i++) {
+			if (i + 1 < order.length && keys.get(order[i]).equals(keys.get(order[i+1]))) continue;
+			order[unique++] = order[i];
+		}
+
+		n = unique;
+		values = (Value[]) new Object[unique];
+
+		int capacity = 16;
+		chars = new char[capacity];
+		left = new int[capacity];
+		mid = new int[capacity];
+		right = new int[capacity];
+		vals = new int[capacity];
+
+		// Inserting the median of each range of sorted keys before the rest, breadth first
+		int[] ranges = new int[2 * Math.max(1, unique)];
+		int head = 0, tail = 0;
+		if (unique > 0) {
+			ranges[tail++] = 0;
+			ranges[tail++] = unique - 1;
+		}
+
+		while (head < tail) {
+			int lo = ranges[head++];
+			int hi = ranges[head++];
+			int median = (lo + hi) >>> 1;
+
+			int item = order[median];
+			values[median] = items.get(item);
+			insert(keys.get(item), median);
+
+			if (lo < median) {
+				ranges[tail++] = lo;
+				ranges[tail++] = median - 1;
+			}
+			if (median < hi) {
+				ranges[tail++] = median + 1;
+				ranges[tail++] = hi;
+			}
+		}
+
+		trim();
+	}
+
+	private int newNode(char c) {
+		if (nodes == chars.length) {
+			int capacity = nodes * 2;
+			chars = Arrays.copyOf(chars, capacity);
+			left = Arrays.copyOf(left, capacity);
+			mid = Arrays.copyOf(mid, capacity);
+			right = Arrays.copyOf(right, capacity);
+			vals = Arrays.copyOf(vals, capacity);
+		}
+
+		chars[nodes] = c;
+		left[nodes] = -1;
+		mid[nodes] = -1;
+		right[nodes] = -1;
+		vals[nodes] = -1;
+
+		return nodes++;
+	}
+
+	private void insert(String key, int value) {
+		if (nodes == 0) newNode(key.charAt(0));
+
+		int x = 0;
+		int d = 0;
+		while (true) {
+			char c = key.charAt(d);
+			// Each new node is made before its link is stored, as making it can grow the arrays
+			if (c < chars[x]) {
+				if (left[x] == -1) { int y = newNode(c); left[x] = y; }
+				x = left[x];
+			} else if (c > chars[x]) {
+				if (right[x] == -1) { int y = newNode(c); right[x] = y; }
+				x = right[x];
+			} else if (d < key.length() - 1) {
+				d++;
+				if (mid[x] == -1) { int y = newNode(key.charAt(d)); mid[x] = y; }
+				x = mid[x];
+			} else {
+				vals[x] = value;
+				return;
+			}
+		}
+	}
+
+	private void trim() {
+		chars = Arrays.copyOf(chars, nodes);
+		left = Arrays.copyOf(left, nodes);
+		mid = Arrays.copyOf(mid, nodes);
+		right = Arrays.copyOf(right, nodes);
+		vals = Arrays.copyOf(vals, nodes);
+	}
+
+	/**
+	 * Returns the number of key-value pairs in this symbol table.
+	 * @return the number of key-value pairs in this symbol table
+	 */
+	public int size() {
+		return n;
+	}
+
+	/**
+	 * Returns the number of nodes in the trie.
+	 * @return the number of nodes in the trie
+	 */
+	public int nodeCount() {
+		return nodes;
+	}
+
+	/**
+	 * Does this symbol table contain the given key?
+	 * @param key the key
+	 * @return {@code true} if this symbol table contains {@code key} and
+	 *     {@code false} otherwise
+	 * @throws IllegalArgumentException if {@code key} is {@code null}
+	 */
+	public boolean contains(String key) {
+		if (key == null) {
+			throw new IllegalArgumentException("argument to contains() is null");
+		}
+		return get(key) != null;
+	}
+
+	/**
+	 * Returns the value associated with the given key.
+	 * @param key the key
+	 * @return the value associated with the given key if the key is in the symbol table
+	 *     and {@code null} if the key is not in the symbol table
+	 * @throws IllegalArgumentException if {@code key} is {@code null}
+	 */
+	public Value get(String key) {
+		if (key == null) {
+			throw new IllegalArgumentException("calls get() with null argument");
+		}
+		if (key.length() == 0) throw new IllegalArgumentException("key must have length >= 1");
+		int x = find(key);
+		if (x == -1 || vals[x] == -1) return null;
+		return values[vals[x]];
+	}
+
+	// node at the end of key, or -1 if no key starts with it
+	private int find(String key) {
+		int x = nodes > 0 ? 0 : -1;
+		int d = 0;
+		while (x != -1) {
+			char c = key.charAt(d);
+			if      (c < chars[x])          x = left[x];
+			else if (c > chars[x])          x = right[x];
+			else if (d < key.length() - 1) { x = mid[x]; d++; }
+			else                            return x;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the string in the symbol table that is the longest prefix of {@code query},
+	 * or {@code null}, if no such string.
+	 * @param query the query string
+	 * @return the string in the symbol table that is the longest prefix of {@code query},
+	 *     or {@code null} if no such string
+	 * @throws IllegalArgumentException if {@code query} is {@code null}
+	 */
+	public String longestPrefixOf(String query) {
+		if (query == null) {
+			throw new IllegalArgumentException("calls longestPrefixOf() with null argument");
+		}
+		if (query.length() == 0) return null;
+		int length = 0;
+		int x = nodes > 0 ? 0 : -1;
+		int i = 0;
+		while (x != -1 && i < query.length()) {
+			char c = query.charAt(i);
+			if      (c < chars[x]) x = left[x];
+			else if (c > chars[x]) x = right[x];
+			else {
+				i++;
+				if (vals[x] != -1) length = i;
+				x = mid[x];
+			}
+		}
+		return query.substring(0, length);
+	}
+
+	/**
+	 * Returns all keys in the symbol table as an {@code Iterable}.
+	 * @return all keys in the symbol table as an {@code Iterable}
+	 */
+	public Iterable<String> keys() {
+		Queue<String> queue = new Queue<String>();
+		collect(nodes > 0 ? 0 : -1, new StringBuilder(), queue);
+		return queue;
+	}
+
+	/**
+	 * Returns all of the keys in the set that start with {@code prefix}.
+	 * @param prefix the prefix
+	 * @return all of the keys in the set that start with {@code prefix},
+	 *     as an iterable
+	 * @throws IllegalArgumentException if {@code prefix} is {@code null}
+	 */
+	public Iterable<String> keysWithPrefix(String prefix) {
+		if (prefix == null) {
+			throw new IllegalArgumentException("calls keysWithPrefix() with null argument");
+		}
+		Queue<String> queue = new Queue<String>();
+		if (prefix.length() == 0) return keys();
+		int x = find(prefix);
+		if (x == -1) return queue;
+		if (vals[x] != -1) queue.enqueue(prefix);
+		collect(mid[x], new StringBuilder(prefix), queue);
+		return queue;
+	}
+
+	// all keys in subtrie rooted at x, in order, following prefix
+	private void collect(int x, StringBuilder prefix, Queue<String> queue) {
+		if (x == -1) return;
+		int base = prefix.length();
+
+		// Each entry is a node and its depth below prefix, with ~node marking a node whose left subtrie is done
+		int[] stack = new int[32];
+		int[] depths = new int[32];
+		int top = 0;
+		stack[top] = x;
+		depths[top++] = 0;
+
+		while (top > 0) {
+			top--;
+			int y = stack[top];
+			int d = depths[top];
+
+			if (top + 3 > stack.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+				depths = Arrays.copyOf(depths, depths.length * 2);
+			}
+
+			if (y >= 0) { // Right subtrie after this node, which comes after its left subtrie
+				if (right[y] != -1) { stack[top] = right[y]; depths[top++] = d; }
+				stack[top] = ~y; depths[top++] = d;
+				if (left[y] != -1)  { stack[top] = left[y];  depths[top++] = d; }
+			} else {
+				y = ~y;
+				prefix.setLength(base + d);
+				prefix.append(chars[y]);
+				if (vals[y] != -1) queue.enqueue(prefix.toString());
+				if (mid[y] != -1) { stack[top] = mid[y]; depths[top++] = d + 1; }
+			}
+		}
+
+		prefix.setLength(base);
+	}
+
+	/**
+	 * Returns the values of all of the keys that start with {@code prefix}, in
+	 * the order of their keys. The list is a read-only view, so iterating over
+	 * part of it, or streaming it with a {@code limit}, only touches the values
+	 * used.
+	 * @param prefix the prefix
+	 * @return the values of all of the keys that start with {@code prefix}
+	 * @throws IllegalArgumentException if {@code prefix} is {@code null}
+	 */
+	public List<Value> valuesWithPrefix(String prefix) {
+		if (prefix == null) {
+			throw new IllegalArgumentException("calls valuesWithPrefix() with null argument");
+		}
+		List<Value> all = Collections.unmodifiableList(Arrays.asList(values));
+		if (prefix.length() == 0) return all;
+		int x = find(prefix);
+		if (x == -1) return Collections.emptyList();
+		return all.subList(vals[x] != -1 ? vals[x] : first(mid[x]), last(x) + 1);
+	}
+
+	/**
+	 * Returns the values of all of the keys that start with {@code prefix} as a
+	 * lazy stream, in the order of their keys.
+	 * @param prefix the prefix
+	 * @return the values of all of the keys that start with {@code prefix}
+	 * @throws IllegalArgumentException if {@code prefix} is {@code null}
+	 */
+	public Stream<Value> streamWithPrefix(String prefix) {
+		return valuesWithPrefix(prefix).stream();
+	}
+
+	// index of the value of the first key in subtrie rooted at x
+	private int first(int x) {
+		while (true) {
+			while (left[x] != -1) x = left[x];
+			if (vals[x] != -1) return vals[x];
+			x = mid[x];
+		}
+	}
+
+	// index of the value of the last key ending at x or below its middle subtrie
+	private int last(int x) {
+		while (mid[x] != -1) {
+			x = mid[x];
+			while (right[x] != -1) x = right[x];
+		}
+		return vals[x];
+	}
+
+	/**
+	 * Returns the values of the keys that start with a string at most
+	 * {@code maxDistance} edits (insertions, deletions or substitutions) away
+	 * from {@code query}, ranked by that number of edits and then by key.
+	 * @param query the query string
+	 * @param maxDistance the largest number of edits allowed
+	 * @return the values of the matching keys, closest first
+	 * @throws IllegalArgumentException if {@code query} is {@code null}
+	 */
+	public List<Value> valuesWithinDistance(String query, int maxDistance) {
+		if (query == null) {
+			throw new IllegalArgumentException("calls valuesWithinDistance() with null argument");
+		}
+		int m = query.length();
+		if (nodes == 0 || maxDistance < 0) return Collections.emptyList();
+
+		// Matches in key order, one list of value indices per distance
+		int[][] found = new int[maxDistance + 1][16];
+		int[] found_count = new int[maxDistance + 1];
+
+		// rows[d] is the Levenshtein row of the first d characters of the key against the query,
+		// and best[d] the smallest distance of the query to any prefix of them
+		int[][] rows = new int[16][];
+		int[] best = new int[16];
+		rows[0] = new int[m + 1];
+		for (int j = 0; j <= m; j++) rows[0][j] = j;
+		best[0] = m;
+
+		// As in collect, with each node's depth being its position in the key
+		int[] stack = new int[32];
+		int[] depths = new int[32];
+		int top = 0;
+		stack[top] = 0;
+		depths[top++] = 0;
+
+		while (top > 0) {
+			top--;
+			int y = stack[top];
+			int d = depths[top];
+
+			if (top + 3 > stack.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+				depths = Arrays.copyOf(depths, depths.length * 2);
+			}
+
+			if (y >= 0) {
+				if (right[y] != -1) { stack[top] = right[y]; depths[top++] = d; }
+				stack[top] = ~y; depths[top++] = d;
+				if (left[y] != -1)  { stack[top] = left[y];  depths[top++] = d; }
+				continue;
+			}
+
+			y = ~y;
+			if (d + 2 > rows.length) {
+				rows = Arrays.copyOf(rows, rows.length * 2);
+				best = Arrays.copyOf(best, best.length * 2);
+			}
+			if (rows[d+1] == null) rows[d+1] = new int[m + 1];
+
+			int[] prev = rows[d];
+			int[] row = rows[d+1];
+			row[0] = d + 1;
+			int lowest = row[0];
+			for (int j = 1; j <= m; j++) {
+				int cost = query.charAt(j-1) == chars[y] ? 0 : 1;
+				row[j] = Math.min(Math.min(prev[j] + 1, row[j-1] + 1), prev[j-1] + cost);
+				lowest = Math.min(lowest, row[j]);
+			}
+			int distance = Math.min(best[d], row[m]);
+			best[d+1] = distance;
+
+			if (vals[y] != -1 && distance <= maxDistance) add(found, found_count, distance, vals[y], vals[y]);
+
+			if (mid[y] == -1) continue;
+			if (lowest >= distance) { // Nothing below can come closer, so the whole subtrie matches or none of it does
+				if (distance <= maxDistance) add(found, found_count, distance, first(mid[y]), last(y));
+			} else if (lowest <= maxDistance) {
+				stack[top] = mid[y]; depths[top++] = d + 1;
+			}
+		}
+
+		int total = 0;
+		for (int count:found_count) total += count;
+
+		@SuppressWarnings("unchecked")
+		Value[] ranked = (Value[]) new Object[total];
+		int i = 0;
+		for (int distance = 0; distance <= maxDistance; distance++)
+			for (int k = 0; k < found_count[distance]; k++)
+				ranked[i++] = values[found[distance][k]];
+		return Arrays.asList(ranked);
+	}
+
+	// adds the value indices from first to last to the matches at distance
+	private static void add(int[][] found, int[] found_count, int distance, int first, int last) {
+		int count = found_count[distance];
+		int needed = count + last - first + 1;
+		if (needed > found[distance].length)
+			found[distance] = Arrays.copyOf(found[distance], Math.max(needed, found[distance].length * 2));
+		for (int v = first; v <= last; v++)
+			found[distance][count++] = v;
+		found_count[distance] = count;
+	}
+
+	/**
+	 * Returns all of the keys in the symbol table that match {@code pattern},
+	 * where the character '.' is interpreted as a wildcard character.
+	 * @param pattern the pattern
+	 * @return all of the keys in the symbol table that match {@code pattern},
+	 *     as an iterable, where . is treated as a wildcard character.
+	 */
+	public Iterable<String> keysThatMatch(String pattern) {
+		Queue<String> queue = new Queue<String>();
+		if (nodes == 0 || pattern.length() == 0) return queue;
+		StringBuilder prefix = new StringBuilder();
+
+		// As in collect, with each node's depth being its position in the pattern
+		int[] stack = new int[32];
+		int[] depths = new int[32];
+		int top = 0;
+		stack[top] = 0;
+		depths[top++] = 0;
+
+		while (top > 0) {
+			top--;
+			int y = stack[top];
+			int d = depths[top];
+
+			if (top + 3 > stack.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+				depths = Arrays.copyOf(depths, depths.length * 2);
+			}
+
+			if (y >= 0) {
+				char c = pattern.charAt(d);
+				if ((c == '.' || c > chars[y]) && right[y] != -1) { stack[top] = right[y]; depths[top++] = d; }
+				if (c == '.' || c == chars[y])                    { stack[top] = ~y;       depths[top++] = d; }
+				if ((c == '.' || c < chars[y]) && left[y] != -1)  { stack[top] = left[y];  depths[top++] = d; }
+			} else {
+				y = ~y;
+				prefix.setLength(d);
+				prefix.append(chars[y]);
+				if (d == pattern.length() - 1 && vals[y] != -1) queue.enqueue(prefix.toString());
+				if (d < pattern.length() - 1 && mid[y] != -1) { stack[top] = mid[y]; depths[top++] = d + 1; }
+			}
+		}
+
+		return queue;
+	}
+
+	/**
+	 * Returns a symbol table with the same keys as this one, each associated
+	 * with a new value. The two tables share their node arrays.
+	 * @param mapper gives the new value for each value
+	 * @return the symbol table
+	 */
+	@SuppressWarnings("unchecked")
+	public <Mapped> CompactTST<Mapped> mapValues(Function<Value, Mapped> mapper) {
+		CompactTST<Mapped> st = new CompactTST<Mapped>();
+		st.n = n;
+		st.values = (Mapped[]) new Object[n];
+		for (int i = 0; i < n; i++)
+			st.values[i] = mapper.apply(values[i]);
+
+		st.nodes = nodes;
+		st.chars = chars;
+		st.left = left;
+		st.mid = mid;
+		st.right = right;
+		st.vals = vals;
+		return st;
+	}
+
+	/**
+	 * Writes this symbol table to {@code out} as its node arrays, with each
+	 * value written as the integer returned by {@code valueId}.
+	 * @param out the output to write to
+	 * @param valueId maps each value to a non-negative integer
+	 * @throws IOException if writing fails
+	 */
+	public void writeTo(DataOutput out, ToIntFunction<Value> valueId) throws IOException {
+		out.writeInt(n);
+		for (int i = 0; i < n; i++)
+			out.writeInt(valueId.applyAsInt(values[i]));
+
+		out.writeInt(nodes);
+		for (int x = 0; x < nodes; x++) {
+			out.writeChar(chars[x]);
+			out.writeInt(left[x]);
+			out.writeInt(mid[x]);
+			out.writeInt(right[x]);
+			out.writeInt(vals[x]);
+		}
+	}
+
+	/**
+	 * Reads a symbol table written by {@link #writeTo}.
+	 * @param in the buffer to read from, positioned at the start of the table
+	 * @param values maps the integers written for each value back to values
+	 * @return the symbol table
+	 */
+	@SuppressWarnings("unchecked")
+	public static <Value> CompactTST<Value> readFrom(ByteBuffer in, IntFunction<Value> values) {
+		CompactTST<Value> st = new CompactTST<Value>();
+		st.n = in.getInt();
+		st.values = (Value[]) new Object[st.n];
+		for (int i = 0; i < st.n; i++)
+			st.values[i] = values.apply(in.getInt());
+
+		st.nodes = in.getInt();
+		st.chars = new char[st.nodes];
+		st.left = new int[st.nodes];
+		st.mid = new int[st.nodes];
+		st.right = new int[st.nodes];
+		st.vals = new int[st.nodes];
+		for (int x = 0; x < st.nodes; x++) {
+			st.chars[x] = in.getChar();
+			st.left[x] = in.getInt();
+			st.mid[x] = in.getInt();
+			st.right[x] = in.getInt();
+			st.vals[x] = in.getInt();
+		}
+		return st;
+	}
+}
@@ -0,0 +1,330 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *  The {@code ConnectionScan} class answers earliest arrival queries over the
+ *  timetable using the Connection Scan Algorithm: "leaving stop A at 08:15,
+ *  when can I reach stop B".
+ *  <p>
+ *  Every trip is split into elementary connections, one per hop between
+ *  consecutive stops, held in parallel arrays sorted by departure time. A trip
+ *  is ridden no further than its first unknown time, or first time going
+ *  backwards, as there's no telling when it runs after that. A query
+ *  scans them once from the requested departure time, boarding a trip's
+ *  connection if the trip is already being ridden or its departure stop has been
+ *  reached in time, and stops as soon as connections depart after the best known
+ *  arrival at the destination.
+ *  <p>
+ *  Times are seconds since the start of the service day, so trips running after
+ *  midnight carry on past 24:00 and a query can ride them through the night.
+ *  <p>
+ *  Transfers come from transfers.txt. A transfer between two stops is walked
+ *  after arriving by bus, taking its minimum transfer time. A transfer from a
+ *  stop to itself sets the minimum time to change between trips there. Transfers
+ *  of type 3 (not possible) are ignored.
+ */
+public class ConnectionScan {
+	private static final int UNREACHED = Integer.MAX_VALUE;
+
+	private final List<BusNetwork.Stop> stops;
+	private final int[] trip_ids;
+
+	// Elementary connections, sorted by departure time
+	private final int[] dep_stop;
+	private final int[] arr_stop;
+	private final int[] dep_time;
+	private final int[] arr_time;
+	private final int[] conn_trip; // Index into trip_ids
+
+	// Transfers between different stops, in CSR form
+	private final int[] foot_offsets;
+	private final int[] foot_targets;
+	private final int[] foot_times;
+
+	private final int[] change_time; // Minimum time to change trips at each stop
+
+	public ConnectionScan(List<BusNetwork.Stop> stops, List<BusNetwork.Trip> trips, BusNetwork.TransferList transfers) {
+		this.stops = stops;
+
+		trip_ids = new int[trips.size()];
+		for (int t = 0; t < trips.size(); t++)
+			trip_ids[t] = trips.get(t).id;
+
+		Connections connections = split(trips, null);
+		dep_stop = connections.from;
+		arr_stop = connections.to;
+		dep_time = connections.dep;
+		arr_time = connections.arr;
+		conn_trip = connections.trip;
+
+		// Transfers
+
+		if (transfers == null) transfers = new BusNetwork.TransferList();
+
+		change_time = transfers.changeTimes(stops.size());
+
+		int[][] walks = transfers.walks(stops.size());
+		foot_offsets = walks[0];
+		foot_targets = walks[1];
+		foot_times = walks[2];
+	}
+
+	ConnectionScan(ConnectionScan previous, List<BusNetwork.Stop> stops) { // Same timetable for another version of the network's stops, sharing every array
+		this.stops = stops;
+		this.trip_ids = previous.trip_ids;
+		this.dep_stop = previous.dep_stop;
+		this.arr_stop = previous.arr_stop;
+		this.dep_time = previous.dep_time;
+		this.arr_time = previous.arr_time;
+		this.conn_trip = previous.conn_trip;
+		this.foot_offsets = previous.foot_offsets;
+		this.foot_targets = previous.foot_targets;
+		this.foot_times = previous.foot_times;
+		this.change_time = previous.change_time;
+	}
+
+	ConnectionScan(ConnectionScan previous, List<BusNetwork.Stop> stops, List<BusNetwork.Trip> trips, int[] positions, BusNetwork.TransferList transfers) { // For a changed trip list, where positions[t] is the new index of previous trip t or -1 if it was removed
+		this.stops = stops;
+
+		trip_ids = new int[trips.size()];
+		for (int t = 0; t < trips.size(); t++)
+			trip_ids[t] = trips.get(t).id;
+
+		// Only the trips that are new need splitting and sorting
+
+		boolean[] kept = new boolean[trips.size()];
+		int kept_count = 0;
+		for (int c = 0; c < previous.conn_trip.length; c++)
+			if (positions[previous.conn_trip[c]] != -1) kept_count++;
+		for (int position:positions)
+			if (position != -1) kept[position] = true;
+
+		Connections added = split(trips, kept);
+		int count = kept_count + added.dep.length;
+
+		dep_stop = new int[count];
+		arr_stop = new int[count];
+		dep_time = new int[count];
+		arr_time = new int[count];
+		conn_trip = new int[count];
+
+		// Merging them with the connections kept, which are still in order
+
+		int old = 0;
+		int a = 0;
+		for (int c = 0; c < count; c++) {
+			while (old < previous.conn_trip.length && positions[previous.conn_trip[old]] == -1)
+				old++;
+
+			boolean take_old = a == added.dep.length || (old < previous.conn_trip.length && (previous.dep_time[old] < added.dep[a]
+				|| (previous.dep_time[old] == added.dep[a] && positions[previous.conn_trip[old]] < added.trip[a])));
+
+			if (take_old) {
+				dep_stop[c] = previous.dep_stop[old];
+				arr_stop[c] = previous.arr_stop[old];
+				dep_time[c] = previous.dep_time[old];
+				arr_time[c] = previous.arr_time[old];
+				conn_trip[c] = positions[previous.conn_trip[old]];
+				old++;
+			} else {
+				dep_stop[c] = added.from[a];
+				arr_stop[c] = added.to[a];
+				dep_time[c] = added.dep[a];
+				arr_time[c] = added.arr[a];
+				conn_trip[c] = added.trip[a];
+				a++;
+			}
+		}
+
+		// Transfers
+
+		if (transfers == null) transfers = new BusNetwork.TransferList();
+
+		change_time = transfers.changeTimes(stops.size());
+
+		int[][] walks = transfers.walks(stops.size());
+		foot_offsets = walks[0];
+		foot_targets = walks[1];
+		foot_times = walks[2];
+	}
+
+	private static class Connections { // Parallel arrays, as for the class's own
+		int[] from;
+		int[] to;
+		int[] dep;
+		int[] arr;
+		int[] trip; // Index into the trip list
+	}
+
+	private static Connections split(List<BusNetwork.Trip> trips, boolean[] skipped) { // Connections of the trips not skipped (null to skip none), sorted by departure
+		int count = 0;
+		for (int t = 0; t < trips.size(); t++)
+			if (skipped == null || !skipped[t])
+				count += Math.max(0, trips.get(t).usableLength() - 1);
+
+		int[] from = new int[count];
+		int[] to = new int[count];
+		int[] dep = new int[count];
+		int[] arr = new int[count];
+		int[] trip_index = new int[count];
+
+		count = 0;
+		for (int t = 0; t < trips.size(); t++) {
+			if (skipped != null && skipped[t]) continue;
+			BusNetwork.Trip trip = trips.get(t);
+			int length = trip.usableLength();
+
+			for (int i = 0; i + 1 < length; i++) {
+				int departure = trip.getTime(i);
+				int arrival = trip.getTime(i+1);
+
+				from[count] = trip.stops.get(i).node_id;
+				to[count] = trip.stops.get(i+1).node_id;
+				dep[count] = departure;
+				arr[count] = arrival;
+				trip_index[count] = t;
+				count++;
+			}
+		}
+
+		// Sorting by departure, ties kept in trip order so a trip's zero length hops stay in sequence
+
+		long[] keys = new long[count];
+		for (int c = 0; c < count; c++)
+			keys[c] = ((long) dep[c] << 32) | c;
+		Arrays.sort(keys);
+
+		Connections ret = new Connections();
+		ret.from = new int[count];
+		ret.to = new int[count];
+		ret.dep = new int[count];
+		ret.arr = new int[count];
+		ret.trip = new int[count];
+
+		for (int i = 0; i < count; i++) {
+			int c = (int) keys[i];
+			ret.from[i] = from[c];
+			ret.to[i] = to[c];
+			ret.dep[i] = dep[c];
+			ret.arr[i] = arr[c];
+			ret.trip[i] = trip_index[c];
+		}
+
+		return ret;
+	}
+
+	public int connectionCount() {
+		return dep_time.length;
+	}
+
+	private int firstDeparture(int time) { // Index of the first connection departing at or after time
+		int first = 0;
+		int last = dep_time.length;
+
+		while (first < last) {
+			int mid = (first + last) >>> 1;
+			if (dep_time[mid] < time)
+				first = mid + 1;
+			else
+				last = mid;
+		}
+
+		return first;
+	}
+
+	public Journey earliestArrival(int source, int target, int departure) { // Returns null if target can't be reached the same day
+		int n = stops.size();
+
+		// Arrivals by bus and on foot are kept apart, as only the former can be followed by a transfer
+		int[] bus_arrival = new int[n];
+		int[] bus_connection = new int[n]; // Last connection ridden to get there
+		int[] walk_arrival = new int[n];
+		int[] walked_from = new int[n];
+		int[] trip_entry = new int[trip_ids.length]; // First connection ridden on each trip
+
+		Arrays.fill(bus_arrival, UNREACHED);
+		Arrays.fill(bus_connection, -1);
+		Arrays.fill(walk_arrival, UNREACHED);
+		Arrays.fill(walked_from, -1);
+		Arrays.fill(trip_entry, -1);
+
+		walk_arrival[source] = departure;
+		walk(source, departure, walk_arrival, walked_from);
+
+		for (int c = firstDeparture(departure); c < dep_time.length; c++) {
+			if (dep_time[c] >= Math.min(bus_arrival[target], walk_arrival[target])) break; // Nothing later can arrive sooner
+
+			int trip = conn_trip[c];
+			if (trip_entry[trip] == -1) { // Not riding this trip yet
+				if (!canBoard(dep_stop[c], dep_time[c], bus_arrival, walk_arrival)) continue;
+				trip_entry[trip] = c;
+			}
+
+			int stop = arr_stop[c];
+			if (arr_time[c] < bus_arrival[stop]) {
+				bus_arrival[stop] = arr_time[c];
+				bus_connection[stop] = c;
+
+				walk(stop, arr_time[c], walk_arrival, walked_from);
+			}
+		}
+
+		if (bus_arrival[target] == UNREACHED && walk_arrival[target] == UNREACHED) return null;
+
+		// Rebuilding the legs backwards from the target
+
+		Journey journey = new Journey();
+		journey.departure = departure;
+		journey.arrival = Math.min(bus_arrival[target], walk_arrival[target]);
+
+		int stop = target;
+		boolean by_bus = bus_arrival[target] <= walk_arrival[target];
+
+		while (stop != source) {
+			Journey.Leg leg = new Journey.Leg();
+			leg.to = stops.get(stop);
+
+			if (by_bus) { // Ride from where the trip was boarded
+				int c = bus_connection[stop];
+				int entry = trip_entry[conn_trip[c]];
+
+				leg.trip_id = trip_ids[conn_trip[c]];
+				leg.departure = dep_time[entry];
+				leg.arrival = arr_time[c];
+
+				stop = dep_stop[entry];
+				by_bus = walk_arrival[stop] > dep_time[entry];
+			} else { // Transfer, which always follows a ride unless it starts at the source
+				int prev = walked_from[stop];
+
+				leg.trip_id = -1;
+				leg.departure = prev == source ? departure : bus_arrival[prev];
+				leg.arrival = walk_arrival[stop];
+
+				stop = prev;
+				by_bus = true;
+			}
+
+			leg.from = stops.get(stop);
+			journey.legs.add(0, leg);
+		}
+
+		return journey;
+	}
+
+	private boolean canBoard(int stop, int time, int[] bus_arrival, int[] walk_arrival) { // Whether a new trip can be boarded at stop by time
+		return walk_arrival[stop] <= time || (bus_arrival[stop] != UNREACHED && bus_arrival[stop] + change_time[stop] <= time);
+	}
+
+	private void walk(int stop, int time, int[] walk_arrival, int[] walked_from) { // Relaxes the transfers out of a stop
+		for (int f = foot_offsets[stop]; f < foot_offsets[stop+1]; f++) {
+			int to = foot_targets[f];
+			int arrival = time + foot_times[f];
+
+			if (arrival < walk_arrival[to]) {
+				walk_arrival[to] = arrival;
+				walked_from[to] = stop;
+			}
+		}
+	}
+}
@@ -0,0 +1,579 @@
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ *  The {@code ContractionHierarchy} class is a preprocessed form of a
+ *  {@link CompactGraph} that answers stop-to-stop queries with two small upward
+ *  searches instead of a search over the whole network.
+ *  <p>
+ *  Nodes are contracted one at a time in order of edge difference (shortcuts
+ *  added minus edges removed, plus the number of already contracted neighbours
+ *  to spread contraction evenly). Contracting a node adds a shortcut between
+ *  each pair of its neighbours unless a bounded witness search finds a path that
+ *  is at least as cheap without it. Every shortcut remembers the two edges it
+ *  replaces so paths can be unpacked back into original stops.
+ *  <p>
+ *  A hierarchy can be saved to and loaded from a file. The file records a
+ *  fingerprint of the graph it was built from and is rejected if it doesn't match.
+ */
+public class ContractionHierarchy {
+	private static final int MAGIC = 0x42434831; // "BCH1"
+	private static final int VERSION = 1;
+
+	private static int witness_settle_limit = 500; // Max nodes settled per witness search
+
+	private final int node_count;
+	private final long fingerprint;
+
+	// All edges, original edges first and then shortcuts
+
+	private final int edge_count;
+	private final int[] edge_from;
+	private final int[] edge_to;
+	private final double[] edge_cost;
+	private final int[] edge_child1; // First half of a shortcut, -1 for original edges
+	private final int[] edge_child2;
+
+	private final int[] rank; // Contraction order
+
+	// Query graphs: edges leading to higher ranked nodes, forwards and backwards
+
+	private int[] up_offsets;
+	private int[] up_targets;
+	private double[] up_costs;
+	private int[] up_ids;
+
+	private int[] down_offsets;
+	private int[] down_targets;
+	private double[] down_costs;
+	private int[] down_ids;
+
+	private ContractionHierarchy(int node_count, long fingerprint, int edge_count, int[] edge_from, int[] edge_to, double[] edge_cost, int[] edge_child1, int[] edge_child2, int[] rank) {
+		this.node_count = node_count;
+		this.fingerprint = fingerprint;
+		this.edge_count = edge_count;
+		this.edge_from = edge_from;
+		this.edge_to = edge_to;
+		this.edge_cost = edge_cost;
+		this.edge_child1 = edge_child1;
+		this.edge_child2 = edge_child2;
+		this.rank = rank;
+
+		buildQueryGraphs();
+	}
+
+	public int nodeCount() {
+		return node_count;
+	}
+
+	public int shortcutCount() {
+		int count = 0;
+		for (int e = 0; e < edge_count; e++)
+			if (edge_child1[e] != -1)
+				count++;
+
+		return count;
+	}
+
+	public boolean matches(CompactGraph graph) {
+		return graph.nodeCount() == node_count && graph.fingerprint() == fingerprint;
+	}
+
+	private void buildQueryGraphs() {
+		up_offsets = new int[node_count+1];
+		down_offsets = new int[node_count+1];
+
+		for (int e = 0; e < edge_count; e++) {
+			if (rank[edge_to[e]] > rank[edge_from[e]])
+				up_offsets[edge_from[e]+1]++;
+			else
+				down_offsets[edge_to[e]+1]++;
+		}
+
+		for (int i = 0; i < node_count; i++) {
+			up_offsets[i+1] += up_offsets[i];
+			down_offsets[i+1] += down_offsets[i];
+		}
+
+		int up_count = up_offsets[node_count];
+		int down_count = down_offsets[node_count];
+
+		up_targets = new int[up_count];
+		up_costs = new double[up_count];
+		up_ids = new int[up_count];
+		down_targets = new int[down_count];
+		down_costs = new double[down_count];
+		down_ids = new int[down_count];
+
+		int[] up_next = Arrays.copyOf(up_offsets, node_count);
+		int[] down_next = Arrays.copyOf(down_offsets, node_count);
+
+		for (int e = 0; e < edge_count; e++) {
+			int from = edge_from[e];
+			int to = edge_to[e];
+
+			if (rank[to] > rank[from]) {
+				int p = up_next[from]++;
+				up_targets[p] = to;
+				up_costs[p] = edge_cost[e];
+				up_ids[p] = e;
+			} else {
+				int p = down_next[to]++;
+				down_targets[p] = from;
+				down_costs[p] = edge_cost[e];
+				down_ids[p] = e;
+			}
+		}
+	}
+
+	// Queries
+
+	public PathSearch.Result query(int source, int target) {
+		double[] dist_f = new double[node_count];
+		double[] dist_b = new double[node_count];
+		int[] edge_f = new int[node_count]; // Edge used to reach each node
+		int[] edge_b = new int[node_count];
+
+		Arrays.fill(dist_f, Double.MAX_VALUE);
+		Arrays.fill(dist_b, Double.MAX_VALUE);
+
+		IndexMinPQ queue_f = new IndexMinPQ(node_count);
+		IndexMinPQ queue_b = new IndexMinPQ(node_count);
+
+		dist_f[source] = 0;
+		dist_b[target] = 0;
+		edge_f[source] = -1;
+		edge_b[target] = -1;
+		queue_f.insert(source, 0);
+		queue_b.insert(target, 0);
+
+		double best = Double.MAX_VALUE;
+		int meeting = -1;
+		int settled = 0;
+		int relaxed = 0;
+		int heap_ops = 2; // Counting both inserts
+
+		while (true) {
+			// Each side stops once it can no longer improve on the best meeting point
+			if (!queue_f.isEmpty() && queue_f.minKey() >= best) queue_f.clear();
+			if (!queue_b.isEmpty() && queue_b.minKey() >= best) queue_b.clear();
+
+			boolean forward;
+			if (queue_f.isEmpty() && queue_b.isEmpty()) break;
+			else if (queue_f.isEmpty()) forward = false;
+			else if (queue_b.isEmpty()) forward = true;
+			else forward = queue_f.minKey() <= queue_b.minKey();
+
+			IndexMinPQ queue = forward ? queue_f : queue_b;
+			double[] dist = forward ? dist_f : dist_b;
+			double[] other_dist = forward ? dist_b : dist_f;
+			int[] parent_edge = forward ? edge_f : edge_b;
+			int[] offsets = forward ? up_offsets : down_offsets;
+			int[] targets = forward ? up_targets : down_targets;
+			double[] costs = forward ? up_costs : down_costs;
+			int[] ids = forward ? up_ids : down_ids;
+
+			int current_node = queue.delMin();
+			settled++;
+			heap_ops++;
+			relaxed += offsets[current_node+1] - offsets[current_node];
+
+			double current_cost = dist[current_node];
+
+			if (other_dist[current_node] != Double.MAX_VALUE && current_cost + other_dist[current_node] < best) {
+				best = current_cost + other_dist[current_node];
+				meeting = current_node;
+			}
+
+			for (int e = offsets[current_node]; e < offsets[current_node+1]; e++) {
+				int to_check = targets[e];
+
+				double new_cost = current_cost + costs[e];
+				if (dist[to_check] <= new_cost) continue;
+
+				dist[to_check] = new_cost;
+				parent_edge[to_check] = ids[e];
+
+				if (queue.contains(to_check))
+					queue.decreaseKey(to_check, new_cost);
+				else
+					queue.insert(to_check, new_cost);
+				heap_ops++;
+			}
+		}
+
+		NetworkMetrics.get().recordSearch(settled, relaxed, heap_ops);
+		if (meeting == -1) return null;
+
+		return unpack(source, target, meeting, edge_f, edge_b, settled);
+	}
+
+	private PathSearch.Result unpack(int source, int target, int meeting, int[] edge_f, int[] edge_b, int settled) {
+		// Collecting the top level edges of the path in order
+
+		int forward_count = 0;
+		for (int node = meeting; node != source; node = edge_from[edge_f[node]])
+			forward_count++;
+
+		int backward_count = 0;
+		for (int node = meeting; node != target; node = edge_to[edge_b[node]])
+			backward_count++;
+
+		int[] top_edges = new int[forward_count + backward_count];
+
+		int i = forward_count;
+		for (int node = meeting; node != source; node = edge_from[edge_f[node]])
+			top_edges[--i] = edge_f[node];
+
+		i = forward_count;
+		for (int node = meeting; node != target; node = edge_to[edge_b[node]])
+			top_edges[i++] = edge_b[node];
+
+		// Expanding shortcuts depth first into original edges
+
+		int[] nodes = new int[16];
+		int length = 0;
+		nodes[length++] = source;
+
+		double cost = 0;
+		int[] stack = new int[16];
+
+		for (int top:top_edges) {
+			int size = 0;
+			stack[size++] = top;
+
+			while (size > 0) {
+				int e = stack[--size];
+
+				if (edge_child1[e] == -1) {
+					if (length == nodes.length)
+						nodes = Arrays.copyOf(nodes, length * 2);
+
+					nodes[length++] = edge_to[e];
+					cost += edge_cost[e];
+					continue;
+				}
+
+				if (size + 2 > stack.length)
+					stack = Arrays.copyOf(stack, stack.length * 2);
+
+				stack[size++] = edge_child2[e];
+				stack[size++] = edge_child1[e];
+			}
+		}
+
+		PathSearch.Result result = new PathSearch.Result();
+		result.nodes = Arrays.copyOf(nodes, length);
+		result.cost = cost;
+		result.settled = settled;
+
+		return result;
+	}
+
+	// Persistence
+
+	public boolean save(String file) {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(fingerprint);
+			out.writeInt(node_count);
+			out.writeInt(edge_count);
+
+			for (int i = 0; i < node_count; i++)
+				out.writeInt(rank[i]);
+
+			for (int e = 0; e < edge_count; e++) {
+				out.writeInt(edge_from[e]);
+				out.writeInt(edge_to[e]);
+				out.writeDouble(edge_cost[e]);
+				out.writeInt(edge_child1[e]);
+				out.writeInt(edge_child2[e]);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+
+		return true;
+	}
+
+	public static ContractionHierarchy load(String file, CompactGraph graph) { // Returns null if missing, unreadable or built from a different graph
+		if (!new File(file).isFile()) return null;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+
+			long fingerprint = in.readLong();
+			int node_count = in.readInt();
+			int edge_count = in.readInt();
+
+			if (node_count != graph.nodeCount() || fingerprint != graph.fingerprint()) return null;
+
+			int[] rank = new int[node_count];
+			for (int i = 0; i < node_count; i++)
+				rank[i] = in.readInt();
+
+			int[] edge_from = new int[edge_count];
+			int[] edge_to = new int[edge_count];
+			double[] edge_cost = new double[edge_count];
+			int[] edge_child1 = new int[edge_count];
+			int[] edge_child2 = new int[edge_count];
+
+			for (int e = 0; e < edge_count; e++) {
+				edge_from[e] = in.readInt();
+				edge_to[e] = in.readInt();
+				edge_cost[e] = in.readDouble();
+				edge_child1[e] = in.readInt();
+				edge_child2[e] = in.readInt();
+			}
+
+			return new ContractionHierarchy(node_count, fingerprint, edge_count, edge_from, edge_to, edge_cost, edge_child1, edge_child2, rank);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	// Preprocessing
+
+	public static ContractionHierarchy build(CompactGraph graph) {
+		Contractor contractor = new Contractor(graph);
+		contractor.contractAll();
+
+		return new ContractionHierarchy(graph.nodeCount(), graph.fingerprint(), contractor.m,
+				Arrays.copyOf(contractor.from, contractor.m), Arrays.copyOf(contractor.to, contractor.m),
+				Arrays.copyOf(contractor.cost, contractor.m), Arrays.copyOf(contractor.child1, contractor.m),
+				Arrays.copyOf(contractor.child2, contractor.m), contractor.rank);
+	}
+
+	private static class Contractor {
+		int n;
+
+		// Edge storage
+		int m = 0;
+		int[] from = new int[64];
+		int[] to = new int[64];
+		double[] cost = new double[64];
+		int[] child1 = new int[64];
+		int[] child2 = new int[64];
+
+		// Edge ids leaving and entering each node
+		int[][] out;
+		int[] out_size;
+		int[][] in;
+		int[] in_size;
+
+		boolean[] contracted;
+		int[] rank;
+		int[] deleted_neighbours;
+
+		// Witness search state, reset by bumping the stamp
+		double[] witness_dist;
+		int[] witness_stamp;
+		int stamp = 0;
+		IndexMinPQ witness_queue;
+
+		Contractor(CompactGraph graph) {
+			n = graph.nodeCount();
+
+			out = new int[n][];
+			out_size = new int[n];
+			in = new int[n][];
+			in_size = new int[n];
+			for (int i = 0; i < n; i++) {
+				out[i] = new int[4];
+				in[i] = new int[4];
+			}
+
+			contracted = new boolean[n];
+			rank = new int[n];
+			deleted_neighbours = new int[n];
+
+			witness_dist = new double[n];
+			witness_stamp = new int[n];
+			witness_queue = new IndexMinPQ(n);
+
+			// Copying the graph, keeping one (cheapest) edge per node pair and no self loops
+
+			for (int u = 0; u < n; u++) {
+				for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+					int w = graph.getTarget(e);
+					if (w == u) continue;
+
+					int existing = findEdge(u, w);
+					if (existing == -1)
+						addEdge(u, w, graph.getCost(e), -1, -1);
+					else if (graph.getCost(e) < cost[existing])
+						cost[existing] = graph.getCost(e);
+				}
+			}
+		}
+
+		int addEdge(int u, int w, double c, int first, int second) {
+			if (m == from.length) {
+				int capacity = m * 2;
+				from = Arrays.copyOf(from, capacity);
+				to = Arrays.copyOf(to, capacity);
+				cost = Arrays.copyOf(cost, capacity);
+				child1 = Arrays.copyOf(child1, capacity);
+				child2 = Arrays.copyOf(child2, capacity);
+			}
+
+			from[m] = u;
+			to[m] = w;
+			cost[m] = c;
+			child1[m] = first;
+			child2[m] = second;
+
+			if (out_size[u] == out[u].length)
+				out[u] = Arrays.copyOf(out[u], out_size[u] * 2);
+			out[u][out_size[u]++] = m;
+
+			if (in_size[w] == in[w].length)
+				in[w] = Arrays.copyOf(in[w], in_size[w] * 2);
+			in[w][in_size[w]++] = m;
+
+			return m++;
+		}
+
+		int findEdge(int u, int w) {
+			for (int i = 0; i < out_size[u]; i++) {
+				int e = out[u][i];
+				if (to[e] == w)
+					return e;
+			}
+
+			return -1;
+		}
+
+		void witnessSearch(int source, int ignore, double max_cost) { // Bounded Dijkstra avoiding the node being contracted
+			stamp++;
+			witness_queue.clear();
+
+			witness_stamp[source] = stamp;
+			witness_dist[source] = 0;
+			witness_queue.insert(source, 0);
+
+			int settled = 0;
+			while (!witness_queue.isEmpty()) {
+				if (witness_queue.minKey() > max_cost || settled++ >= witness_settle_limit) break;
+
+				int x = witness_queue.delMin();
+				double dx = witness_dist[x];
+
+				for (int i = 0; i < out_size[x]; i++) {
+					int e = out[x][i];
+					int y = to[e];
+					if (contracted[y] || y == ignore) continue;
+
+					double dy = dx + cost[e];
+					if (witness_stamp[y] == stamp && witness_dist[y] <= dy) continue;
+
+					witness_stamp[y] = stamp;
+					witness_dist[y] = dy;
+
+					if (witness_queue.contains(y))
+						witness_queue.decreaseKey(y, dy);
+					else
+						witness_queue.insert(y, dy);
+				}
+			}
+		}
+
+		double witnessDistance(int node) {
+			return witness_stamp[node] == stamp ? witness_dist[node] : Double.MAX_VALUE;
+		}
+
+		int contract(int v, boolean add_shortcuts) { // Returns the number of shortcuts contracting v needs
+			int shortcuts = 0;
+
+			for (int i = 0; i < in_size[v]; i++) {
+				int e1 = in[v][i];
+				int u = from[e1];
+				if (contracted[u]) continue;
+
+				double max_out = -1;
+				for (int j = 0; j < out_size[v]; j++) {
+					int e2 = out[v][j];
+					int w = to[e2];
+					if (contracted[w] || w == u) continue;
+
+					max_out = Math.max(max_out, cost[e2]);
+				}
+
+				if (max_out < 0) continue;
+
+				witnessSearch(u, v, cost[e1] + max_out);
+
+				for (int j = 0; j < out_size[v]; j++) {
+					int e2 = out[v][j];
+					int w = to[e2];
+					if (contracted[w] || w == u) continue;
+
+					double via = cost[e1] + cost[e2];
+					if (witnessDistance(w) <= via) continue;
+
+					shortcuts++;
+					if (!add_shortcuts) continue;
+
+					int existing = findEdge(u, w);
+					if (existing == -1) {
+						addEdge(u, w, via, e1, e2);
+					} else if (via < cost[existing]) {
+						cost[existing] = via;
+						child1[existing] = e1;
+						child2[existing] = e2;
+					}
+				}
+			}
+
+			return shortcuts;
+		}
+
+		double priority(int v) { // Edge difference plus contracted neighbours
+			int removed = 0;
+			for (int i = 0; i < in_size[v]; i++)
+				if (!contracted[from[in[v][i]]]) removed++;
+			for (int i = 0; i < out_size[v]; i++)
+				if (!contracted[to[out[v][i]]]) removed++;
+
+			return contract(v, false) - removed + deleted_neighbours[v];
+		}
+
+		void contractAll() {
+			IndexMinPQ order = new IndexMinPQ(n);
+			for (int v = 0; v < n; v++)
+				order.insert(v, priority(v));
+
+			int next_rank = 0;
+			while (!order.isEmpty()) {
+				int v = order.delMin();
+
+				// Lazy update: re-check the priority and put the node back if it got worse
+				double p = priority(v);
+				if (!order.isEmpty() && p > order.minKey()) {
+					order.insert(v, p);
+					continue;
+				}
+
+				contract(v, true);
+				contracted[v] = true;
+				rank[v] = next_rank++;
+
+				// Neighbours' priorities change after contraction
+				for (int i = 0; i < in_size[v]; i++)
+					updateNeighbour(order, from[in[v][i]]);
+				for (int i = 0; i < out_size[v]; i++)
+					updateNeighbour(order, to[out[v][i]]);
+			}
+		}
+
+		void updateNeighbour(IndexMinPQ order, int x) {
+			if (contracted[x] || !order.contains(x)) return;
+
+			deleted_neighbours[x]++;
+			order.changeKey(x, priority(x));
+		}
+	}
+}
@@ -0,0 +1,206 @@
+/******************************************************************************
+ *  Compilation:  javac IndexMinPQ.java
+ *
+ *  Minimum-oriented indexed priority queue with primitive double keys,
+ *  implemented using a binary heap. Adapted from the algs4 IndexMinPQ
+ *  so that Dijkstra can decrease keys without boxing.
+ *
+ ******************************************************************************/
+
+import java.util.NoSuchElementException;
+
+/**
+ *  The {@code IndexMinPQ} class represents an indexed priority queue of
+ *  {@code double} keys, where each key is associated with an integer index
+ *  between 0 and {@code maxN}-1.
+ *  It supports the usual <em>insert</em> and <em>delete-the-minimum</em>
+ *  operations, along with <em>decrease-key</em> and testing whether an index
+ *  is on the queue.
+ *  <p>
+ *  This implementation uses a binary heap along with an array to associate
+ *  indices with their position in the heap.
+ *  The <em>insert</em>, <em>delete-the-minimum</em> and <em>decrease-key</em>
+ *  operations take logarithmic time.
+ *  The <em>is-empty</em>, <em>size</em>, <em>min-index</em>, <em>min-key</em>
+ *  and <em>contains</em> operations take constant time.
+ *  <p>
+ *  For additional documentation, see <a href="https://algs4.cs.princeton.edu/24pq">Section 2.4</a> of
+ *  <i>Algorithms, 4th Edition</i> by Robert Sedgewick and Kevin Wayne.
+ */
+public class IndexMinPQ {
+    private int n;              // number of elements on PQ
+    private int[] pq;           // binary heap using 1-based indexing
+    private int[] qp;           // inverse of pq - qp[pq[i]] = pq[qp[i]] = i
+    private double[] keys;      // keys[i] = priority of i
+
+    /**
+     * Initializes an empty indexed priority queue with indices between {@code 0}
+     * and {@code maxN - 1}.
+     * @param  maxN the keys on this priority queue are index from {@code 0}
+     *         {@code maxN - 1}
+     * @throws IllegalArgumentException if {@code maxN < 0}
+     */
+    public IndexMinPQ(int maxN) {
+        if (maxN < 0) throw new IllegalArgumentException();
+        keys = new double[maxN];
+        pq   = new int[maxN + 1];
+        qp   = new int[maxN];
+        for (int i = 0; i < maxN; i++)
+            qp[i] = -1;
+    }
+
+    /**
+     * Returns true if this priority queue is empty.
+     * @return {@code true} if this priority queue is empty;
+     *         {@code false} otherwise
+     */
+    public boolean isEmpty() {
+        return n == 0;
+    }
+
+    /**
+     * Is {@code i} an index on this priority queue?
+     * @param  i an index
+     * @return {@code true} if {@code i} is an index on this priority queue;
+     *         {@code false} otherwise
+     */
+    public boolean contains(int i) {
+        return qp[i] != -1;
+    }
+
+    /**
+     * Returns the number of keys on this priority queue.
+     * @return the number of keys on this priority queue
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * Associates key with index {@code i}.
+     * @param  i an index
+     * @param  key the key to associate with index {@code i}
+     * @throws IllegalArgumentException if there already is an item associated
+     *         with index {@code i}
+     */
+    public void insert(int i, double key) {
+        if (contains(i)) throw new IllegalArgumentException("index is already in the priority queue");
+        n++;
+        qp[i] = n;
+        pq[n] = i;
+        keys[i] = key;
+        swim(n);
+    }
+
+    /**
+     * Returns an index associated with a minimum key.
+     * @return an index associated with a minimum key
+     * @throws NoSuchElementException if this priority queue is empty
+     */
+    public int minIndex() {
+        if (n == 0) throw new NoSuchElementException("Priority queue underflow");
+        return pq[1];
+    }
+
+    /**
+     * Returns a minimum key.
+     * @return a minimum key
+     * @throws NoSuchElementException if this priority queue is empty
+     */
+    public double minKey() {
+        if (n == 0) throw new NoSuchElementException("Priority queue underflow");
+        return keys[pq[1]];
+    }
+
+    /**
+     * Removes a minimum key and returns its associated index.
+     * @return an index associated with a minimum key
+     * @throws NoSuchElementException if this priority queue is empty
+     */
+    public int delMin() {
+        if (n == 0) throw new NoSuchElementException("Priority queue underflow");
+        int min = pq[1];
+        exch(1, n--);
+        sink(1);
+        qp[min] = -1;        // delete
+        pq[n+1] = -1;        // not needed
+        return min;
+    }
+
+    /**
+     * Decrease the key associated with index {@code i} to the specified value.
+     * @param  i the index of the key to decrease
+     * @param  key decrease the key associated with index {@code i} to this key
+     * @throws IllegalArgumentException if {@code key >= keyOf(i)}
+     * @throws NoSuchElementException no key is associated with index {@code i}
+     */
+    public void decreaseKey(int i, double key) {
+        if (!contains(i)) throw new NoSuchElementException("index is not in the priority queue");
+        if (keys[i] < key)
+            throw new IllegalArgumentException("Calling decreaseKey() with a key strictly greater than the key in the priority queue");
+        keys[i] = key;
+        swim(qp[i]);
+    }
+
+    /**
+     * Change the key associated with index {@code i} to the specified value.
+     * @param  i the index of the key to change
+     * @param  key change the key associated with index {@code i} to this key
+     * @throws NoSuchElementException no key is associated with index {@code i}
+     */
+    public void changeKey(int i, double key) {
+        if (!contains(i)) throw new NoSuchElementException("index is not in the priority queue");
+        keys[i] = key;
+        swim(qp[i]);
+        sink(qp[i]);
+    }
+
+    /**
+     * Removes every key from this priority queue, in time proportional to
+     * the number of keys on it.
+     */
+    public void clear() {
+        for (int k = 1; k <= n; k++) {
+            qp[pq[k]] = -1;
+            pq[k] = -1;
+        }
+        n = 0;
+    }
+
+
+   /***************************************************************************
+    * General helper functions.
+    ***************************************************************************/
+    private boolean greater(int i, int j) {
+        return keys[pq[i]] > keys[pq[j]];
+    }
+
+    private void exch(int i, int j) {
+        int swap = pq[i];
+        pq[i] = pq[j];
+        pq[j] = swap;
+        qp[pq[i]] = i;
+        qp[pq[j]] = j;
+    }
+
+
+   /***************************************************************************
+    * Heap helper functions.
+    ***************************************************************************/
+    private void swim(int k) {
+        while (k > 1 && greater(k/2, k)) {
+            exch(k, k/2);
+            k = k/2;
+        }
+    }
+
+    private void sink(int k) {
+        while (2*k <= n) {
+            int j = 2*k;
+            if (j < n && greater(j, j+1)) j++;
+            if (!greater(k, j)) break;
+            exch(k, j);
+            k = j;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+import java.util.Arrays;
+
+/**
+ *  The {@code IntIntMap} class is a hash map from {@code int} keys to {@code int}
+ *  values that never boxes either side.
+ *  <p>
+ *  This implementation uses open addressing with linear probing over parallel
+ *  key and value arrays, resizing to keep the table at most half full.
+ *  {@code Integer.MIN_VALUE} marks an empty slot, so that key is stored in a
+ *  separate field instead of the table.
+ */
+public class IntIntMap {
+	private static final int EMPTY = Integer.MIN_VALUE;
+
+	private int[] keys;
+	private int[] values;
+	private int mask;
+	private int n;
+
+	private boolean has_empty_key = false; // Entry for the EMPTY key itself
+	private int empty_key_value;
+
+	public IntIntMap() {
+		this(16);
+	}
+
+	public IntIntMap(int expected_size) {
+		int capacity = 16;
+		while (capacity < expected_size * 2)
+			capacity *= 2;
+
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		Arrays.fill(keys, EMPTY);
+	}
+
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	public int size() {
+		return n;
+	}
+
+	public int get(int key, int default_value) { // Returns default_value if the key isn't in the map
+		if (key == EMPTY)
+			return has_empty_key ? empty_key_value : default_value;
+
+		for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+			int k = keys[i];
+			if (k == key) return values[i];
+			if (k == EMPTY) return default_value;
+		}
+	}
+
+	public boolean containsKey(int key) {
+		if (key == EMPTY)
+			return has_empty_key;
+
+		for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+			int k = keys[i];
+			if (k == key) return true;
+			if (k == EMPTY) return false;
+		}
+	}
+
+	public void put(int key, int value) {
+		if (key == EMPTY) {
+			if (!has_empty_key) n++;
+			has_empty_key = true;
+			empty_key_value = value;
+			return;
+		}
+
+		int i = hash(key) & mask;
+		while (keys[i] != EMPTY) {
+			if (keys[i] == key) {
+				values[i] = value;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+
+		keys[i] = key;
+		values[i] = value;
+		n++;
+
+		if (n * 2 > keys.length)
+			resize(keys.length * 2);
+	}
+
+	private void resize(int capacity) {
+		int[] old_keys = keys;
+		int[] old_values = values;
+
+		allocate(capacity);
+
+		for (int j = 0; j < old_keys.length; j++) {
+			int key = old_keys[j];
+			if (key == EMPTY) continue;
+
+			int i = hash(key) & mask;
+			while (keys[i] != EMPTY)
+				i = (i + 1) & mask;
+
+			keys[i] = key;
+			values[i] = old_values[j];
+		}
+	}
+}
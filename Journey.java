@@ -0,0 +1,60 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *  The {@code Journey} class is the answer to a timetable query: the legs taken
+ *  from an origin stop to a destination, each either a ride on one trip or a
+ *  transfer between stops.
+ *  <p>
+ *  Times are seconds since midnight of the service day.
+ */
+public class Journey {
+	public static class Leg {
+		BusNetwork.Stop from;
+		BusNetwork.Stop to;
+		int trip_id; // -1 for a transfer
+
+		int departure;
+		int arrival;
+
+		public boolean isTransfer() {
+			return trip_id == -1;
+		}
+
+		public String toString() {
+			String times = BusNetwork.formatTime(departure) + " - " + BusNetwork.formatTime(arrival);
+
+			if (isTransfer())
+				return times + "  Transfer: " + from + " ==> " + to;
+			else
+				return times + "  Trip " + trip_id + ": " + from + " -> " + to;
+		}
+	}
+
+	List<Leg> legs = new ArrayList<Leg>();
+	int departure; // Requested departure time
+	int arrival;
+
+	public int getTripCount() {
+		int rides = 0;
+		for (Leg leg:legs)
+			if (!leg.isTransfer())
+				rides++;
+
+		return rides;
+	}
+
+	public int getTransferCount() { // Changes between trips
+		return Math.max(0, getTripCount() - 1);
+	}
+
+	public String toString() {
+		int transfers = getTransferCount();
+		String ret = "Leaving at " + BusNetwork.formatTime(departure) + ", arriving at " + BusNetwork.formatTime(arrival) + " (" + transfers + (transfers == 1 ? " transfer)" : " transfers)");
+
+		for (Leg leg:legs)
+			ret = ret + "\n	" + leg.toString();
+
+		return ret;
+	}
+}
@@ -0,0 +1,143 @@
+import java.util.Arrays;
+
+/**
+ *  The {@code Json} class writes JSON text into a buffer, one value at a time,
+ *  adding the commas and quotes itself. Objects and arrays are opened and closed
+ *  explicitly, and inside an object each value is preceded by {@link #name}.
+ *  <p>
+ *  Only writing is supported; {@link QueryServer} reads its parameters from the
+ *  query string.
+ */
+public class Json {
+	private final StringBuilder out;
+	private boolean[] has_values = new boolean[16]; // Whether each open object or array already holds a value
+	private int depth = 0;
+	private boolean after_name = false;
+
+	public Json() {
+		this(new StringBuilder(256));
+	}
+
+	public Json(StringBuilder out) {
+		this.out = out;
+	}
+
+	private void separate() { // Comma before every value but the first of its object or array
+		if (after_name) {
+			after_name = false;
+			return;
+		}
+
+		if (depth > 0) {
+			if (has_values[depth]) out.append(',');
+			has_values[depth] = true;
+		}
+	}
+
+	private Json open(char bracket) {
+		separate();
+		out.append(bracket);
+
+		if (++depth == has_values.length)
+			has_values = Arrays.copyOf(has_values, depth * 2);
+		has_values[depth] = false;
+
+		return this;
+	}
+
+	private Json close(char bracket) {
+		depth--;
+		out.append(bracket);
+		return this;
+	}
+
+	public Json beginObject() {
+		return open('{');
+	}
+
+	public Json endObject() {
+		return close('}');
+	}
+
+	public Json beginArray() {
+		return open('[');
+	}
+
+	public Json endArray() {
+		return close(']');
+	}
+
+	public Json name(String name) {
+		separate();
+		quote(name);
+		out.append(':');
+		after_name = true;
+
+		return this;
+	}
+
+	public Json value(String value) {
+		separate();
+		if (value == null)
+			out.append("null");
+		else
+			quote(value);
+
+		return this;
+	}
+
+	public Json value(long value) {
+		separate();
+		out.append(value);
+		return this;
+	}
+
+	public Json value(double value) { // Infinite and NaN values, which JSON can't hold, are written as null
+		separate();
+		if (Double.isInfinite(value) || Double.isNaN(value))
+			out.append("null");
+		else
+			out.append(value);
+
+		return this;
+	}
+
+	public Json value(boolean value) {
+		separate();
+		out.append(value);
+		return this;
+	}
+
+	public Json nullValue() {
+		separate();
+		out.append("null");
+		return this;
+	}
+
+	private void quote(String str) {
+		out.append('"');
+
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+
+			switch (c) {
+				case '"': out.append("\\\""); break;
+				case '\\': out.append("\\\\"); break;
+				case '\n': out.append("\\n"); break;
+				case '\r': out.append("\\r"); break;
+				case '\t': out.append("\\t"); break;
+				default:
+					if (c < 0x20)
+						out.append(String.format("\\u%04x", (int) c));
+					else
+						out.append(c);
+			}
+		}
+
+		out.append('"');
+	}
+
+	public String toString() {
+		return out.toString();
+	}
+}
@@ -0,0 +1,137 @@
+import java.util.Arrays;
+
+/**
+ *  The {@code Landmarks} class gives {@link PathSearch} lower bounds on the cost
+ *  between two nodes of a {@link CompactGraph} from a few precomputed shortest
+ *  path trees (ALT: A*, landmarks and the triangle inequality).
+ *  <p>
+ *  For every landmark {@code L} the cost of each node from {@code L} and to
+ *  {@code L} is stored. By the triangle inequality the cost from {@code a} to
+ *  {@code b} is at least {@code d(L,b) - d(L,a)} and {@code d(a,L) - d(b,L)},
+ *  and the bound is the largest of these over all landmarks. Unlike a bound on
+ *  cost per kilometre, it holds whatever the edges cost, including transfers
+ *  that cover distance for nothing. It is also consistent, so A* never has to
+ *  settle a node twice.
+ *  <p>
+ *  Landmarks are chosen by farthest selection: each is the node whose cost
+ *  from the landmarks already chosen is greatest, which spreads them over the
+ *  edges of the network where they bound best.
+ */
+public class Landmarks {
+	private static final double UNREACHED = Double.MAX_VALUE;
+
+	private final int count;
+	private final double[] from_landmark; // Cost from each landmark, count per node
+	private final double[] to_landmark; // Cost to each landmark, count per node
+	private final int[] landmarks;
+
+	public Landmarks(CompactGraph graph, CompactGraph reverse, int count) {
+		int n = graph.nodeCount();
+		count = Math.min(count, n);
+
+		this.count = count;
+		this.from_landmark = new double[n * count];
+		this.to_landmark = new double[n * count];
+		this.landmarks = new int[count];
+
+		if (count == 0) return;
+
+		// Starting the selection from the busiest node, which is unlikely to be cut off
+
+		int start = 0;
+		for (int node = 1; node < n; node++)
+			if (graph.offsets[node+1] - graph.offsets[node] > graph.offsets[start+1] - graph.offsets[start])
+				start = node;
+
+		double[] dist = new double[n];
+		double[] nearest = new double[n]; // Cost from the closest landmark chosen so far
+		Arrays.fill(nearest, UNREACHED);
+
+		costsFrom(graph, start, dist);
+		int next = farthest(dist);
+
+		for (int l = 0; l < count; l++) {
+			landmarks[l] = next;
+
+			costsFrom(graph, next, dist);
+			for (int node = 0; node < n; node++) {
+				from_landmark[node * count + l] = dist[node];
+				if (dist[node] < nearest[node]) nearest[node] = dist[node];
+			}
+
+			costsFrom(reverse, next, dist);
+			for (int node = 0; node < n; node++)
+				to_landmark[node * count + l] = dist[node];
+
+			next = farthest(nearest);
+		}
+	}
+
+	private static int farthest(double[] dist) { // Reached node with the greatest cost
+		int ret = 0;
+		double best = -1;
+
+		for (int node = 0; node < dist.length; node++) {
+			if (dist[node] != UNREACHED && dist[node] > best) {
+				best = dist[node];
+				ret = node;
+			}
+		}
+
+		return ret;
+	}
+
+	private static void costsFrom(CompactGraph graph, int source, double[] dist) { // One-to-all Dijkstra
+		Arrays.fill(dist, UNREACHED);
+		IndexMinPQ queue = new IndexMinPQ(dist.length);
+
+		dist[source] = 0;
+		queue.insert(source, 0);
+
+		while (!queue.isEmpty()) {
+			int current_node = queue.delMin();
+			double current_cost = dist[current_node];
+
+			for (int e = graph.offsets[current_node]; e < graph.offsets[current_node+1]; e++) {
+				int to_check = graph.targets[e];
+
+				double new_cost = current_cost + graph.costs[e];
+				if (dist[to_check] <= new_cost) continue;
+
+				dist[to_check] = new_cost;
+				if (queue.contains(to_check))
+					queue.decreaseKey(to_check, new_cost);
+				else
+					queue.insert(to_check, new_cost);
+			}
+		}
+	}
+
+	public int count() {
+		return count;
+	}
+
+	public int getLandmark(int l) {
+		return landmarks[l];
+	}
+
+	public double lowerBound(int a, int b) { // Cost from a to b is at least this, 0 if no landmark says more
+		double ret = 0;
+		int base_a = a * count;
+		int base_b = b * count;
+
+		for (int l = 0; l < count; l++) {
+			double from_a = from_landmark[base_a + l];
+			double from_b = from_landmark[base_b + l];
+			if (from_a != UNREACHED && from_b != UNREACHED && from_b - from_a > ret)
+				ret = from_b - from_a;
+
+			double to_a = to_landmark[base_a + l];
+			double to_b = to_landmark[base_b + l];
+			if (to_a != UNREACHED && to_b != UNREACHED && to_a - to_b > ret)
+				ret = to_a - to_b;
+		}
+
+		return ret;
+	}
+}
@@ -0,0 +1,99 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *  The {@code LatencyHistogram} class records durations from many threads at
+ *  once and reports their percentiles.
+ *  <p>
+ *  Durations are counted in microseconds into log-linear buckets: each power of
+ *  two is split into {@code SUB_BUCKETS} equal parts, so a percentile is
+ *  reported to within an eighth of its value whatever its size, with a fixed
+ *  number of counters. Recording is a single atomic increment.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder total_micros = new LongAdder();
+	private final LongAdder count = new LongAdder();
+	private volatile long max_micros = 0;
+
+	private static int bucket(long micros) { // Values below SUB_BUCKETS get a bucket each, larger ones share by their top bits
+		if (micros < SUB_BUCKETS) return (int) micros;
+
+		int exponent = 63 - Long.numberOfLeadingZeros(micros) - SUB_BITS; // Bits below the top SUB_BITS + 1
+		int mantissa = (int) (micros >>> exponent) - SUB_BUCKETS;
+
+		return (exponent + 1) * SUB_BUCKETS + mantissa;
+	}
+
+	private static long upperBound(int bucket) { // Largest value counted in a bucket
+		if (bucket < SUB_BUCKETS) return bucket;
+
+		int exponent = bucket / SUB_BUCKETS - 1;
+		long mantissa = bucket % SUB_BUCKETS + SUB_BUCKETS;
+
+		return ((mantissa + 1) << exponent) - 1;
+	}
+
+	public void record(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+
+		counts.incrementAndGet(bucket(micros));
+		total_micros.add(micros);
+		count.increment();
+
+		if (micros > max_micros) {
+			synchronized (this) {
+				if (micros > max_micros) max_micros = micros;
+			}
+		}
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public double getMeanMicros() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) total_micros.sum() / n;
+	}
+
+	public long getMaxMicros() {
+		return max_micros;
+	}
+
+	public long percentileMicros(double percentile) { // Upper bound of the bucket holding the given percentile, 0 to 100
+		long[] snapshot = new long[BUCKETS];
+		long n = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			snapshot[b] = counts.get(b);
+			n += snapshot[b];
+		}
+		if (n == 0) return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+		long seen = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			seen += snapshot[b];
+			if (seen >= rank) return Math.min(upperBound(b), max_micros);
+		}
+
+		return max_micros;
+	}
+
+	public void reset() {
+		for (int b = 0; b < BUCKETS; b++)
+			counts.set(b, 0);
+		total_micros.reset();
+		count.reset();
+		max_micros = 0;
+	}
+
+	public String toString() {
+		return String.format("n=%d mean=%.0fus p50=%dus p90=%dus p99=%dus p99.9=%dus max=%dus",
+			getCount(), getMeanMicros(), percentileMicros(50), percentileMicros(90), percentileMicros(99), percentileMicros(99.9), getMaxMicros());
+	}
+}
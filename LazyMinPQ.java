@@ -0,0 +1,136 @@
+/******************************************************************************
+ *  Compilation:  javac LazyMinPQ.java
+ *
+ *  Minimum-oriented priority queue of (index, double key) pairs that allows
+ *  the same index to be inserted more than once. Used for lazy-deletion
+ *  Dijkstra, where stale entries are skipped when they are removed.
+ *
+ ******************************************************************************/
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ *  The {@code LazyMinPQ} class represents a priority queue of integer indices
+ *  ordered by {@code double} keys.
+ *  Unlike {@link IndexMinPQ} there is no <em>decrease-key</em>: a caller that
+ *  improves the key of an index simply inserts it again and ignores the
+ *  out-of-date entry when it reaches the top of the queue.
+ *  <p>
+ *  This implementation uses a binary heap stored in parallel primitive arrays,
+ *  so no objects are allocated per entry.
+ *  The <em>insert</em> and <em>delete-the-minimum</em> operations take
+ *  logarithmic amortized time.
+ */
+public class LazyMinPQ {
+    private int n;              // number of entries on PQ
+    private int[] index;        // index[k] = index of heap entry k (1-based)
+    private double[] keys;      // keys[k] = priority of heap entry k
+
+    /**
+     * Initializes an empty priority queue with the given initial capacity.
+     * @param  initCapacity the initial capacity
+     */
+    public LazyMinPQ(int initCapacity) {
+        index = new int[initCapacity + 1];
+        keys  = new double[initCapacity + 1];
+    }
+
+    /**
+     * Returns true if this priority queue is empty.
+     * @return {@code true} if this priority queue is empty;
+     *         {@code false} otherwise
+     */
+    public boolean isEmpty() {
+        return n == 0;
+    }
+
+    /**
+     * Returns the number of entries on this priority queue, including stale ones.
+     * @return the number of entries on this priority queue
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * Adds an entry for index {@code i} with the given key.
+     * @param  i an index
+     * @param  key the key to associate with this entry
+     */
+    public void insert(int i, double key) {
+        if (n == index.length - 1) {
+            index = Arrays.copyOf(index, 2 * index.length);
+            keys  = Arrays.copyOf(keys, 2 * keys.length);
+        }
+        n++;
+        index[n] = i;
+        keys[n] = key;
+        swim(n);
+    }
+
+    /**
+     * Returns the smallest key on this priority queue.
+     * @return the smallest key on this priority queue
+     * @throws NoSuchElementException if this priority queue is empty
+     */
+    public double minKey() {
+        if (n == 0) throw new NoSuchElementException("Priority queue underflow");
+        return keys[1];
+    }
+
+    /**
+     * Removes the entry with the smallest key and returns its index.
+     * @return the index of the entry with the smallest key
+     * @throws NoSuchElementException if this priority queue is empty
+     */
+    public int delMin() {
+        if (n == 0) throw new NoSuchElementException("Priority queue underflow");
+        int min = index[1];
+        exch(1, n--);
+        sink(1);
+        return min;
+    }
+
+    /**
+     * Removes every entry from this priority queue.
+     */
+    public void clear() {
+        n = 0;
+    }
+
+
+   /***************************************************************************
+    * Heap helper functions.
+    ***************************************************************************/
+    private boolean greater(int i, int j) {
+        return keys[i] > keys[j];
+    }
+
+    private void exch(int i, int j) {
+        int swap_index = index[i];
+        index[i] = index[j];
+        index[j] = swap_index;
+
+        double swap_key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = swap_key;
+    }
+
+    private void swim(int k) {
+        while (k > 1 && greater(k/2, k)) {
+            exch(k, k/2);
+            k = k/2;
+        }
+    }
+
+    private void sink(int k) {
+        while (2*k <= n) {
+            int j = 2*k;
+            if (j < n && greater(j, j+1)) j++;
+            if (!greater(k, j)) break;
+            exch(k, j);
+            k = j;
+        }
+    }
+}
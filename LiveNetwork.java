@@ -0,0 +1,45 @@
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ *  The {@code LiveNetwork} class holds the current version of a frozen
+ *  {@link BusNetwork} that can be changed by delta files while it's being
+ *  queried.
+ *  <p>
+ *  Versions are never modified. Applying a {@link NetworkDelta} builds the next
+ *  version alongside the current one, sharing everything the delta leaves
+ *  unchanged, and then swaps it in with a single atomic write. A reader calls
+ *  {@link #get} once per query and keeps using that version, so it sees either
+ *  all of a delta or none of it, and is never blocked by a reload. Deltas are
+ *  applied one at a time.
+ */
+public class LiveNetwork {
+	private final AtomicReference<BusNetwork> current;
+	private volatile int version = 0; // Deltas applied so far
+
+	public LiveNetwork(BusNetwork network) {
+		network.freeze();
+		this.current = new AtomicReference<BusNetwork>(network);
+	}
+
+	public BusNetwork get() {
+		return current.get();
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public synchronized BusNetwork apply(NetworkDelta delta) { // Returns the new version, throws IllegalArgumentException and keeps the current one if the delta doesn't fit it
+		BusNetwork next = current.get().applyDelta(delta);
+
+		current.set(next);
+		version++;
+
+		return next;
+	}
+
+	public BusNetwork apply(String delta_file) throws IOException {
+		return apply(NetworkDelta.read(delta_file));
+	}
+}
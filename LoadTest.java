@@ -0,0 +1,134 @@
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ *  The {@code LoadTest} class drives a running {@link QueryServer} with a mix of
+ *  queries from many concurrent clients and reports the throughput and latency
+ *  it sees.
+ *  <p>
+ *  It first fetches every stop from the server, then each client, on its own
+ *  virtual thread, sends one request at a time until the test ends: half route
+ *  queries between random stops, three in ten prefix searches on real stop
+ *  names, and the rest trips ending in a random quarter hour. Requests made
+ *  during the warmup aren't counted.
+ *  <p>
+ *  Usage: {@code java LoadTest [base url] [clients] [seconds] [warmup seconds]}
+ */
+public class LoadTest {
+	private static final Pattern STOP_ID = Pattern.compile("\"id\":(\\d+)");
+	private static final Pattern STOP_NAME = Pattern.compile("\"name\":\"([^\"]*)\"");
+
+	private static final String[] KINDS = {"route", "stops", "trips"};
+
+	public static void main(String[] args) throws Exception {
+		String base = args.length > 0 ? args[0] : "http://localhost:" + QueryServer.DEFAULT_PORT;
+		int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		int warmup_seconds = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+
+		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+		// Stops to query
+
+		String all = get(client, base + "/stops?q=&limit=" + Integer.MAX_VALUE).body();
+
+		List<Integer> ids = new ArrayList<Integer>();
+		for (Matcher m = STOP_ID.matcher(all); m.find(); )
+			ids.add(Integer.parseInt(m.group(1)));
+
+		List<String> names = new ArrayList<String>();
+		for (Matcher m = STOP_NAME.matcher(all); m.find(); )
+			names.add(m.group(1));
+
+		if (ids.isEmpty()) {
+			System.out.println("No stops returned by " + base);
+			return;
+		}
+
+		System.out.println("Testing " + base + " with " + ids.size() + " stops, " + clients + " clients for " + seconds + "s after " + warmup_seconds + "s warmup");
+
+		// Running the clients
+
+		LatencyHistogram[] latencies = new LatencyHistogram[KINDS.length];
+		for (int k = 0; k < KINDS.length; k++)
+			latencies[k] = new LatencyHistogram();
+		LatencyHistogram overall = new LatencyHistogram();
+		LongAdder errors = new LongAdder();
+
+		long start = System.nanoTime();
+		long measure_from = start + warmup_seconds * 1_000_000_000L;
+		long end = measure_from + seconds * 1_000_000_000L;
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int c = 0; c < clients; c++) {
+			threads.add(Thread.ofVirtual().start(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+
+				while (true) {
+					long sent = System.nanoTime();
+					if (sent >= end) break;
+
+					int kind;
+					String uri;
+					double roll = random.nextDouble();
+
+					if (roll < 0.5) {
+						kind = 0;
+						uri = base + "/route?from=" + ids.get(random.nextInt(ids.size())) + "&to=" + ids.get(random.nextInt(ids.size()));
+					} else if (roll < 0.8) {
+						kind = 1;
+						String name = names.get(random.nextInt(names.size()));
+						String prefix = name.substring(0, Math.min(name.length(), 1 + random.nextInt(6)));
+						uri = base + "/stops?limit=10&q=" + URLEncoder.encode(prefix, StandardCharsets.UTF_8);
+					} else {
+						kind = 2;
+						int minute = random.nextInt(24 * 4) * 15;
+						uri = base + "/trips?limit=10&from=" + String.format("%02d:%02d", minute / 60, minute % 60) + "&to=" + String.format("%02d:%02d", (minute + 14) / 60, (minute + 14) % 60);
+					}
+
+					boolean ok;
+					try {
+						ok = get(client, uri).statusCode() == 200;
+					} catch (Exception e) {
+						ok = false;
+					}
+
+					long received = System.nanoTime();
+					if (sent < measure_from || received > end) continue; // Outside the measured window
+
+					if (!ok) errors.increment();
+					latencies[kind].record(received - sent);
+					overall.record(received - sent);
+				}
+			}));
+		}
+
+		for (Thread thread:threads)
+			thread.join();
+
+		// Report
+
+		long requests = overall.getCount();
+		double qps = requests / (double) seconds;
+		int cores = Runtime.getRuntime().availableProcessors();
+
+		System.out.printf("%d requests, %d errors, %.0f queries/s, %.0f queries/s per core (%d cores)%n", requests, errors.sum(), qps, qps / cores, cores);
+		System.out.println("all     " + overall);
+		for (int k = 0; k < KINDS.length; k++)
+			System.out.printf("%-7s %s%n", KINDS[k], latencies[k]);
+	}
+
+	private static HttpResponse<String> get(HttpClient client, String uri) throws Exception {
+		HttpRequest request = HttpRequest.newBuilder(URI.create(uri)).GET().build();
+		return client.send(request, HttpResponse.BodyHandlers.ofString());
+	}
+}
@@ -6,6 +6,7 @@ import java.util.Scanner;
 
 public class MainProgramme {
 	private static Scanner sc = new Scanner(System.in);
+	private static final int MAX_FUZZY_RESULTS = 20; // Closest stops listed when a search has no exact matches
 	
 	private static String next() {
 		if (!sc.hasNextLine()) {
@@ -40,6 +41,18 @@ public class MainProgramme {
 			
 			List<BusNetwork.Stop> search_results = network.searchStops(search_term);
 			
+			if (search_results.size() <= 0) // Trying again with the words of the search term anywhere in the name
+				search_results = network.searchStops(search_term, BusNetwork.SearchType.TOKEN);
+			
+			if (search_results.size() <= 0) { // Trying again allowing for typos
+				search_results = network.searchStops(search_term, BusNetwork.SearchType.FUZZY);
+				if (search_results.size() > MAX_FUZZY_RESULTS)
+					search_results = search_results.subList(0, MAX_FUZZY_RESULTS);
+				
+				if (search_results.size() > 0)
+					System.out.println("No exact matches, showing the closest stops");
+			}
+			
 			if (search_results.size() <= 0) { // Failed to find any results
 				System.out.println("No results");
 				return null;
@@ -53,7 +66,7 @@ public class MainProgramme {
 			for (BusNetwork.Stop stop: search_results) {
 				i++;
 				
-				System.out.println(i + ". " + stop.name);
+				System.out.println(i + ". " + stop.getName());
 			}
 			
 			System.out.println();
@@ -70,10 +83,10 @@ public class MainProgramme {
 		
 		while (true) {
 			System.out.println();
-			System.out.println("Selected stop: " + stop.name);
-			System.out.println("Choose from the following options:\n1. See stop data\n2. Plot route\n3. Exit to main menu\n");
+			System.out.println("Selected stop: " + stop.getName());
+			System.out.println("Choose from the following options:\n1. See stop data\n2. Plot route\n3. Plan journey by departure time\n4. Compare journeys by number of transfers\n5. Exit to main menu\n");
 			
-			int selection = nextInt(3);
+			int selection = nextInt(5);
 			
 			if (selection == 1) {
 				System.out.println();
@@ -83,13 +96,42 @@ public class MainProgramme {
 				BusNetwork.Stop new_stop = searchStop(network);
 				if (new_stop == null) continue;
 				
-				BusNetwork.Path path = network.getPath(stop, new_stop);
+				BusNetwork.Path path = network.getCachedPath(stop, new_stop);
 				
 				if (path == null)
 					System.out.println("\nNo route found");
 				else
 					System.out.println("\n" + path.toString());
 				
+			} else if (selection == 3 || selection == 4) {
+				System.out.println();
+				BusNetwork.Stop new_stop = searchStop(network);
+				if (new_stop == null) continue;
+				
+				System.out.print("Enter a departure time: ");
+				LocalTime time = parseTime(next());
+				if (time == null) {
+					System.out.println("Time was formatted incorrectly.");
+					continue;
+				}
+				
+				if (selection == 3) {
+					Journey journey = network.getEarliestArrival(stop, new_stop, time);
+					
+					if (journey == null)
+						System.out.println("\nNo journey found leaving after " + time);
+					else
+						System.out.println("\n" + journey.toString());
+				} else {
+					List<Journey> journeys = network.getJourneyOptions(stop, new_stop, time);
+					
+					if (journeys.size() == 0)
+						System.out.println("\nNo journey found leaving after " + time);
+					
+					for (int i = 0; i < journeys.size(); i++)
+						System.out.println("\nOption " + (i+1) + ": " + journeys.get(i).toString());
+				}
+				
 			} else {
 				break;
 			}
@@ -103,37 +145,49 @@ public class MainProgramme {
 		return -1;
 	}
 	
+	static LocalTime parseTime(String str) { // Accepts H:MM or HH:MM[:SS], null if badly formatted
+		try {
+			if (findFirstChar(str,':') < 2)
+				str = "0" + str;
+			
+			return LocalTime.parse(str);
+		} catch (java.time.format.DateTimeParseException e) {
+			return null;
+		}
+	}
+	
 	public static void doArrivalTimes(BusNetwork network) {
 		while (true) {
-			System.out.print("\nType \"exit\" to return to the main menu.\nEnter a time: ");
+			System.out.print("\nType \"exit\" to return to the main menu.\nEnter a time, or a range such as 17:00-18:00: ");
 			String search_term = next();
 			
 			if (search_term.length() >= 4 && search_term.substring(0,4).toLowerCase().equals("exit"))
 				return;
 			
-			LocalTime time;
-			try {
-				if (findFirstChar(search_term,':') < 2)
-					search_term = "0" + search_term;
-				
-				time = LocalTime.parse(search_term);
-			} catch (java.time.format.DateTimeParseException e) {
+			int dash = findFirstChar(search_term,'-');
+			
+			LocalTime from = parseTime(dash == -1 ? search_term : search_term.substring(0,dash).trim());
+			LocalTime to = dash == -1 ? from : parseTime(search_term.substring(dash+1).trim());
+			if (from == null || to == null) {
 				System.out.println("Time was formatted incorrectly.");
 				continue;
 			}
 			
 			DateTimeFormatter formatter = DateTimeFormatter.ofLocalizedTime(FormatStyle.SHORT);
 			
-			System.out.println("Searching for all trips arriving at " + time.format(formatter) + "...\n");
+			String when = from.equals(to) ? "at " + from : "between " + from + " and " + to;
+			String when_formatted = from.equals(to) ? "at " + from.format(formatter) : "between " + from.format(formatter) + " and " + to.format(formatter);
 			
-			List<BusNetwork.Trip> trips = network.getTripsAtTime(time);
+			System.out.println("Searching for all trips arriving " + when_formatted + "...\n");
+			
+			List<BusNetwork.Trip> trips = network.getTripsBetween(from, to);
 			
 			if (trips.size() > 0) {
 				if (trips.size() == 1) { // Handling the case of 1 result
-					System.out.println("Only one trip ends at " + time);
+					System.out.println("Only one trip ends " + when);
 					System.out.println("\n" + trips.get(0).toString());
 				} else { // Selecting from multiple results
-					System.out.println("Trips ending at " + time + ": ");
+					System.out.println("Trips ending " + when + ": ");
 					for (int i = 0; i < trips.size(); i++)
 						System.out.println((i+1) + ". Trip id " + trips.get(i).id);
 					
@@ -144,16 +198,34 @@ public class MainProgramme {
 					System.out.println("\n" + trip.toString());
 				}
 			} else // No results
-				System.out.println("No trips found ending at " + time);
+				System.out.println("No trips found ending " + when);
+		}
+	}
+	
+	static BusNetwork loadNetwork(String stops_file, String transfers_file, String stop_times_file, String snapshot_file) {
+		// Using the snapshot if it's still up to date with the source files
+		
+		BusNetwork network = NetworkSnapshot.read(snapshot_file, stops_file, transfers_file, stop_times_file);
+		if (network != null) {
+			System.out.println("Loaded network from snapshot " + snapshot_file);
+			return network;
 		}
+		
+		network = BusNetwork.networkFromFiles(stops_file, transfers_file, stop_times_file);
+		
+		if (network != null && !NetworkSnapshot.write(network, snapshot_file, stops_file, transfers_file, stop_times_file))
+			System.out.println("Failed to write snapshot " + snapshot_file);
+		
+		return network;
 	}
 	
 	public static void main(String[] args) {
 		String stops_file = args.length > 0 ? args[0] : "src/stops.txt";
 		String transfers_file = args.length > 1 ? args[1] : "src/transfers.txt";
 		String stop_times_file = args.length > 2 ? args[2] : "src/stop_times.txt";
+		String snapshot_file = args.length > 3 ? args[3] : stop_times_file + ".snapshot";
 		
-		BusNetwork network = BusNetwork.networkFromFiles(stops_file, transfers_file, stop_times_file);
+		BusNetwork network = loadNetwork(stops_file, transfers_file, stop_times_file, snapshot_file);
 		if (network == null) {
 			System.out.println("Error finding file, exiting programme...");
 			next(); // Requires user to press enter
@@ -0,0 +1,323 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ *  The {@code MappedCsvReader} class reads a comma separated file through a
+ *  memory mapping of the whole file, parsing numeric fields and times straight
+ *  from the bytes so that no intermediate Strings are created for them.
+ *  <p>
+ *  Call {@link #nextLine()} to move to a line, then read its fields left to right
+ *  with the {@code next*} methods. Fields are not quoted, matching the GTFS feed.
+ *  Times are returned as seconds since midnight and may have a leading space
+ *  ({@code " 5:25:00"}) or an hour of 24 or more.
+ */
+public class MappedCsvReader {
+	private final ByteBuffer buffer;
+	private final int length; // End of the readable range
+	private final String filename;
+
+	private int pos = 0; // Start of the next field
+	private int line_end = -1; // End of the current line, excluding any '\r'
+	private int next_line = 0; // Start of the next line
+
+	private byte[] scratch = new byte[64]; // For decoding String fields
+
+	public MappedCsvReader(String address) throws IOException {
+		filename = address;
+
+		File file = new File(address);
+		if (!file.isFile())
+			throw new FileNotFoundException(address);
+
+		try (FileChannel channel = FileChannel.open(Path.of(address), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("File too large to map: " + address);
+
+			length = (int) size;
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+	}
+
+	private MappedCsvReader(MappedCsvReader parent, int start, int end) {
+		buffer = parent.buffer.duplicate();
+		length = end;
+		filename = parent.filename;
+		next_line = start;
+	}
+
+	public String getFilename() {
+		return filename;
+	}
+
+	// Splitting for parallel reads
+
+	public MappedCsvReader slice(int start, int end) { // Independent reader over [start, end), which must be on line boundaries
+		return new MappedCsvReader(this, start, end);
+	}
+
+	public int[] splitOnFirstField(int parts) { // Offsets dividing the unread lines into about equal ranges without separating consecutive lines that share their first field
+		int start = next_line;
+
+		int[] bounds = new int[parts+1];
+		int count = 0;
+		bounds[count++] = start;
+
+		for (int k = 1; k < parts; k++) {
+			int target = start + (int) ((long) (length - start) * k / parts);
+			if (target <= bounds[count-1]) continue;
+
+			int bound = lineStartFrom(target);
+			while (bound < length && firstFieldEquals(previousLineStart(bound), bound))
+				bound = lineStartFrom(bound + 1);
+
+			if (bound > bounds[count-1] && bound < length)
+				bounds[count++] = bound;
+		}
+
+		bounds[count++] = length;
+		return Arrays.copyOf(bounds, count);
+	}
+
+	private int lineStartFrom(int p) { // First line start at or after p
+		if (p == 0 || buffer.get(p-1) == '\n') return p;
+
+		while (p < length && buffer.get(p) != '\n')
+			p++;
+
+		return Math.min(p + 1, length);
+	}
+
+	private int previousLineStart(int line_start) {
+		int p = line_start - 1; // The '\n' ending the previous line
+		while (p > 0 && buffer.get(p-1) != '\n')
+			p--;
+
+		return p;
+	}
+
+	private boolean firstFieldEquals(int a, int b) {
+		while (true) {
+			byte x = a < length ? buffer.get(a) : (byte) '\n';
+			byte y = b < length ? buffer.get(b) : (byte) '\n';
+
+			boolean x_end = x == ',' || x == '\r' || x == '\n';
+			boolean y_end = y == ',' || y == '\r' || y == '\n';
+			if (x_end || y_end) return x_end && y_end;
+			if (x != y) return false;
+
+			a++;
+			b++;
+		}
+	}
+
+	public boolean nextLine() { // Moves to the next line, returns false at the end of the file
+		if (next_line >= length) return false;
+
+		pos = next_line;
+
+		int i = pos;
+		while (i < length && buffer.get(i) != '\n')
+			i++;
+
+		next_line = i + 1;
+		if (i > pos && buffer.get(i-1) == '\r')
+			i--;
+
+		line_end = i;
+		return true;
+	}
+
+	private int fieldEnd() {
+		int i = pos;
+		while (i < line_end && buffer.get(i) != ',')
+			i++;
+
+		return i;
+	}
+
+	private void finishField(int end) { // Moves past the field and its comma
+		pos = end < line_end ? end + 1 : line_end;
+	}
+
+	public boolean isEmptyField() {
+		return pos >= line_end || buffer.get(pos) == ',';
+	}
+
+	public void skipField() {
+		finishField(fieldEnd());
+	}
+
+	public int nextInt() { // Throws NumberFormatException if the field isn't an integer
+		int start = pos;
+		int end = fieldEnd();
+
+		long value = parseLong(start, end);
+		finishField(end);
+
+		if (value == Long.MIN_VALUE)
+			throw new NumberFormatException("Not an integer: \"" + decode(start, end) + "\" in " + filename);
+
+		return (int) value;
+	}
+
+	public int nextInt(int default_value) { // Returns default_value if the field is empty or not an integer
+		int end = fieldEnd();
+
+		long value = parseLong(pos, end);
+		finishField(end);
+
+		return value == Long.MIN_VALUE ? default_value : (int) value;
+	}
+
+	private long parseLong(int start, int end) { // Long.MIN_VALUE if not a whole int
+		if (start == end) return Long.MIN_VALUE;
+
+		boolean negative = false;
+		byte b = buffer.get(start);
+		if (b == '-' || b == '+') {
+			negative = b == '-';
+			start++;
+			if (start == end) return Long.MIN_VALUE;
+		}
+
+		long value = 0;
+		for (int i = start; i < end; i++) {
+			int digit = buffer.get(i) - '0';
+			if (digit < 0 || digit > 9) return Long.MIN_VALUE;
+
+			value = value * 10 + digit;
+			if (value > Integer.MAX_VALUE + 1L) return Long.MIN_VALUE;
+		}
+
+		if (negative) value = -value;
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) return Long.MIN_VALUE;
+
+		return value;
+	}
+
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	public double nextDouble() { // Throws NumberFormatException if the field isn't a number
+		int start = pos;
+		int end = fieldEnd();
+		finishField(end);
+
+		// Fast path for plain decimals: an exact integer mantissa divided by an exact
+		// power of ten is correctly rounded, so this matches Double.parseDouble
+
+		int i = start;
+		boolean negative = false;
+		if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+			negative = buffer.get(i) == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int fraction_digits = -1; // -1 until the decimal point is seen
+		boolean simple = i < end;
+
+		for (; i < end; i++) {
+			byte b = buffer.get(i);
+			if (b == '.' && fraction_digits == -1) {
+				fraction_digits = 0;
+				continue;
+			}
+
+			int digit = b - '0';
+			if (digit < 0 || digit > 9 || digits >= 15) {
+				simple = false;
+				break;
+			}
+
+			mantissa = mantissa * 10 + digit;
+			digits++;
+			if (fraction_digits != -1) fraction_digits++;
+		}
+
+		if (simple && digits > 0) {
+			double value = fraction_digits > 0 ? mantissa / POWERS_OF_TEN[fraction_digits] : mantissa;
+			return negative ? -value : value;
+		}
+
+		return Double.parseDouble(decode(start, end)); // Exponents, long mantissas and errors
+	}
+
+	public int nextTime() { // Seconds since midnight for H:MM[:SS], -1 if the field isn't a time
+		int end = fieldEnd();
+
+		int i = pos;
+		while (i < end && buffer.get(i) == ' ')
+			i++;
+
+		int seconds = -1;
+		int hours = 0;
+		int hour_digits = 0;
+		for (; i < end && buffer.get(i) != ':'; i++) {
+			int digit = buffer.get(i) - '0';
+			if (digit < 0 || digit > 9) break;
+
+			hours = hours * 10 + digit;
+			hour_digits++;
+		}
+
+		if (hour_digits > 0 && hour_digits <= 3 && i < end && buffer.get(i) == ':') {
+			int minutes = twoDigits(i + 1, end);
+			i += 3;
+
+			int secs = 0;
+			if (i < end) {
+				secs = buffer.get(i) == ':' ? twoDigits(i + 1, end) : -1;
+				i += 3;
+			}
+
+			if (minutes >= 0 && minutes < 60 && secs >= 0 && secs < 60 && i >= end)
+				seconds = hours * 3600 + minutes * 60 + secs;
+		}
+
+		finishField(end);
+		return seconds;
+	}
+
+	private int twoDigits(int start, int end) {
+		if (start + 2 > end) return -1;
+
+		int tens = buffer.get(start) - '0';
+		int ones = buffer.get(start + 1) - '0';
+		if (tens < 0 || tens > 9 || ones < 0 || ones > 9) return -1;
+
+		return tens * 10 + ones;
+	}
+
+	public String nextString() {
+		int end = fieldEnd();
+		String ret = decode(pos, end);
+		finishField(end);
+
+		return ret;
+	}
+
+	private String decode(int start, int end) {
+		int len = end - start;
+		if (len > scratch.length)
+			scratch = new byte[Math.max(len, scratch.length * 2)];
+
+		boolean ascii = true;
+		for (int i = 0; i < len; i++) {
+			byte b = buffer.get(start + i);
+			scratch[i] = b;
+			if (b < 0) ascii = false;
+		}
+
+		return new String(scratch, 0, len, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+	}
+}
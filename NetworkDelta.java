@@ -0,0 +1,142 @@
+import java.io.IOException;
+import java.util.*;
+
+/**
+ *  The {@code NetworkDelta} class holds a set of changes to the GTFS files of a
+ *  {@link BusNetwork}, read from a delta file, for {@link BusNetwork#applyDelta}
+ *  to apply to a live network without loading the files again.
+ *  <p>
+ *  Each line of a delta file is an operation, then the fields of the matching
+ *  source file as they would appear there. Blank lines and lines starting with
+ *  {@code #} are skipped:
+ *  <pre>
+ *  stop,&lt;stops.txt row&gt;                adds a stop, or replaces the stop with that id
+ *  transfer,&lt;transfers.txt row&gt;        adds a transfer
+ *  -transfer,&lt;from_stop_id&gt;,&lt;to_stop_id&gt;  removes every transfer from one stop to another
+ *  stop_time,&lt;stop_times.txt row&gt;      adds a stop to a new trip, a trip's rows being together and in order
+ *  -trip,&lt;trip_id&gt;                     removes a trip
+ *  </pre>
+ *  A trip is changed by removing it and adding it again. Stops can't be
+ *  removed, as their node ids are shared by everything built on the network.
+ */
+public class NetworkDelta {
+	// Stops added or replaced, by stop id
+	final StopTable.Builder stops = new StopTable.Builder();
+	int stop_count = 0;
+
+	// Transfers added, by stop id
+	final List<int[]> added_transfers = new ArrayList<int[]>(); // {from, to, type, min_time}
+	final Set<Long> removed_transfers = new HashSet<Long>(); // from << 32 | to
+
+	// Trips added, by stop id
+	final List<TripRows> added_trips = new ArrayList<TripRows>();
+	final Set<Integer> removed_trips = new HashSet<Integer>();
+
+	static class TripRows { // Rows of stop_times.txt for one trip
+		final int id;
+		int[] stop_ids = new int[8];
+		int[] times = new int[8]; // Seconds, Trip.NO_TIME if unparseable
+		int count = 0;
+
+		TripRows(int id) {
+			this.id = id;
+		}
+
+		void add(int stop_id, int time) {
+			if (count == stop_ids.length) {
+				stop_ids = Arrays.copyOf(stop_ids, count * 2);
+				times = Arrays.copyOf(times, count * 2);
+			}
+
+			stop_ids[count] = stop_id;
+			times[count] = time;
+			count++;
+		}
+	}
+
+	static long transferKey(int from_stop_id, int to_stop_id) {
+		return (long) from_stop_id << 32 | (to_stop_id & 0xFFFFFFFFL);
+	}
+
+	public boolean isEmpty() {
+		return stop_count == 0 && added_transfers.isEmpty() && removed_transfers.isEmpty() && added_trips.isEmpty() && removed_trips.isEmpty();
+	}
+
+	public String toString() {
+		return stop_count + " stops, " + added_transfers.size() + " transfers added, " + removed_transfers.size() + " removed, "
+			+ added_trips.size() + " trips added, " + removed_trips.size() + " removed";
+	}
+
+	// Reading
+
+	public static NetworkDelta read(String file) throws IOException { // Throws IllegalArgumentException naming the line if it's malformed
+		MappedCsvReader reader = new MappedCsvReader(file);
+		NetworkDelta delta = new NetworkDelta();
+
+		TripRows trip = null;
+		Set<Integer> trip_ids = new HashSet<Integer>();
+		int line = 0;
+
+		while (reader.nextLine()) {
+			line++;
+
+			String op = reader.nextString().trim();
+			if (op.isEmpty() || op.startsWith("#")) continue;
+
+			try {
+				switch (op) {
+					case "stop": {
+						int stop_id = reader.nextInt();
+						int stop_code = reader.nextInt(-1);
+						String name = reader.nextString();
+						String desc = reader.nextString();
+						double lat = reader.nextDouble();
+						double lon = reader.nextDouble();
+						String zone = reader.nextString();
+
+						delta.stops.add(stop_id, stop_code, name, desc, lat, lon, zone);
+						delta.stop_count++;
+						break;
+					}
+					case "transfer": {
+						int from = reader.nextInt();
+						int to = reader.nextInt();
+						int type = reader.nextInt();
+						int min_time = reader.isEmptyField() ? 0 : (int) reader.nextDouble();
+
+						delta.added_transfers.add(new int[] {from, to, type, min_time});
+						break;
+					}
+					case "-transfer":
+						delta.removed_transfers.add(transferKey(reader.nextInt(), reader.nextInt()));
+						break;
+					case "stop_time": {
+						int trip_id = reader.nextInt();
+						int arrival_seconds = reader.nextTime();
+						reader.skipField(); // Departure time
+						int stop_id = reader.nextInt();
+
+						if (trip == null || trip.id != trip_id) {
+							if (!trip_ids.add(trip_id)) throw new IllegalArgumentException("rows of trip " + trip_id + " aren't together");
+
+							trip = new TripRows(trip_id);
+							delta.added_trips.add(trip);
+						}
+
+						trip.add(stop_id, arrival_seconds >= 0 ? arrival_seconds : BusNetwork.Trip.NO_TIME);
+						break;
+					}
+					case "-trip":
+						delta.removed_trips.add(reader.nextInt());
+						break;
+					default:
+						throw new IllegalArgumentException("unknown operation " + op);
+				}
+			} catch (IllegalArgumentException e) { // Including NumberFormatException from the reader
+				throw new IllegalArgumentException(file + " line " + line + ": " + e.getMessage());
+			}
+		}
+
+		return delta;
+	}
+}
@@ -0,0 +1,208 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ *  The {@code NetworkMetrics} class collects measurements of loading and
+ *  querying every {@link BusNetwork} in the process, cheaply enough to be left
+ *  on.
+ *  <p>
+ *  It records the time taken and rows read by each phase of the last load, the
+ *  latency of each kind of query in a {@link LatencyHistogram}, and totals over
+ *  all shortest path searches of the nodes settled, edges relaxed and heap
+ *  operations done. A search counts in local variables and adds them to the
+ *  {@code LongAdder} totals once at its end, so threads never contend over
+ *  them. Dividing the totals by the number of searches gives the work done by
+ *  a typical search, to set a slow query's own {@code nodes_settled} against.
+ *  <p>
+ *  The metrics can be read through JMX, see {@link NetworkMetricsMXBean}, or
+ *  printed as text, once with {@link #getSummary} or every so often with
+ *  {@link #startDump}.
+ */
+public class NetworkMetrics implements NetworkMetricsMXBean {
+	private static final NetworkMetrics metrics = new NetworkMetrics();
+
+	public static NetworkMetrics get() {
+		return metrics;
+	}
+
+	// Loading, in phase order
+	private final Map<String, long[]> load_phases = new LinkedHashMap<String, long[]>(); // {nanos, rows}
+
+	// Queries
+	private final Map<String, LatencyHistogram> queries = new LinkedHashMap<String, LatencyHistogram>();
+
+	final LatencyHistogram path_latency = query("getPath");
+	final LatencyHistogram cached_path_latency = query("getCachedPath");
+	final LatencyHistogram search_latency = query("searchStops");
+	final LatencyHistogram fuzzy_search_latency = query("searchStopsFuzzy");
+	final LatencyHistogram token_search_latency = query("searchStopsByToken");
+	final LatencyHistogram trips_latency = query("getTripsBetween"); // Including getTripsAtTime
+
+	// Shortest path searches
+	private final LongAdder searches = new LongAdder();
+	private final LongAdder nodes_settled = new LongAdder();
+	private final LongAdder edges_relaxed = new LongAdder(); // Edges looked at from settled nodes
+	private final LongAdder heap_operations = new LongAdder(); // Inserts, decrease keys and removals
+
+	private ScheduledExecutorService dumper;
+
+	private NetworkMetrics() {
+	}
+
+	private LatencyHistogram query(String name) {
+		LatencyHistogram latency = new LatencyHistogram();
+		queries.put(name, latency);
+
+		return latency;
+	}
+
+	// Recording
+
+	public synchronized void recordLoadPhase(String phase, long nanos, long rows) { // Replaces the phase's figures from an earlier load
+		load_phases.put(phase, new long[] {nanos, rows});
+	}
+
+	public void recordSearch(int settled, int relaxed, int heap_ops) {
+		searches.increment();
+		nodes_settled.add(settled);
+		edges_relaxed.add(relaxed);
+		heap_operations.add(heap_ops);
+	}
+
+	// Reading
+
+	public synchronized Map<String, Long> getLoadMillis() {
+		Map<String, Long> ret = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, long[]> phase:load_phases.entrySet())
+			ret.put(phase.getKey(), phase.getValue()[0] / 1000000);
+
+		return ret;
+	}
+
+	public synchronized Map<String, Long> getLoadRows() {
+		Map<String, Long> ret = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, long[]> phase:load_phases.entrySet())
+			ret.put(phase.getKey(), phase.getValue()[1]);
+
+		return ret;
+	}
+
+	public LatencyHistogram getLatency(String query) { // Null if there's no such query
+		return queries.get(query);
+	}
+
+	public Map<String, Map<String, Long>> getQueryLatencies() {
+		Map<String, Map<String, Long>> ret = new LinkedHashMap<String, Map<String, Long>>();
+
+		for (Map.Entry<String, LatencyHistogram> entry:queries.entrySet()) {
+			LatencyHistogram latency = entry.getValue();
+
+			Map<String, Long> summary = new LinkedHashMap<String, Long>();
+			summary.put("count", latency.getCount());
+			summary.put("mean", Math.round(latency.getMeanMicros()));
+			summary.put("p50", latency.percentileMicros(50));
+			summary.put("p90", latency.percentileMicros(90));
+			summary.put("p99", latency.percentileMicros(99));
+			summary.put("p99.9", latency.percentileMicros(99.9));
+			summary.put("max", latency.getMaxMicros());
+
+			ret.put(entry.getKey(), summary);
+		}
+
+		return ret;
+	}
+
+	public long getSearches() {
+		return searches.sum();
+	}
+
+	public long getNodesSettled() {
+		return nodes_settled.sum();
+	}
+
+	public long getEdgesRelaxed() {
+		return edges_relaxed.sum();
+	}
+
+	public long getHeapOperations() {
+		return heap_operations.sum();
+	}
+
+	public void reset() {
+		for (LatencyHistogram latency:queries.values())
+			latency.reset();
+
+		searches.reset();
+		nodes_settled.reset();
+		edges_relaxed.reset();
+		heap_operations.reset();
+	}
+
+	public String getSummary() {
+		StringBuilder ret = new StringBuilder();
+
+		Map<String, Long> millis = getLoadMillis();
+		Map<String, Long> rows = getLoadRows();
+
+		ret.append("Load:");
+		if (millis.isEmpty()) ret.append(" none");
+
+		String separator = " ";
+		for (String phase:millis.keySet()) {
+			ret.append(separator).append(String.format("%s %d rows in %d ms", phase, rows.get(phase), millis.get(phase)));
+			separator = ", ";
+		}
+		ret.append('\n');
+
+		for (Map.Entry<String, LatencyHistogram> entry:queries.entrySet())
+			if (entry.getValue().getCount() > 0)
+				ret.append(String.format("%-18s %s%n", entry.getKey(), entry.getValue()));
+
+		long count = getSearches();
+		ret.append(String.format("Searches: %d, settling %d nodes, relaxing %d edges and %d heap operations", count, getNodesSettled(), getEdgesRelaxed(), getHeapOperations()));
+		if (count > 0)
+			ret.append(String.format(" (%.0f, %.0f and %.0f per search)", (double) getNodesSettled() / count, (double) getEdgesRelaxed() / count, (double) getHeapOperations() / count));
+
+		return ret.toString();
+	}
+
+	public String toString() {
+		return getSummary();
+	}
+
+	// Publishing
+
+	public boolean registerMBean() { // Returns false if it couldn't be registered
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("BusNetwork:type=Metrics"));
+		} catch (InstanceAlreadyExistsException e) {
+			return true; // Registered already
+		} catch (JMException e) {
+			e.printStackTrace();
+			return false;
+		}
+
+		return true;
+	}
+
+	public synchronized ScheduledFuture<?> startDump(PrintStream out, long period_seconds) { // Prints the summary every period on a daemon thread, until cancelled
+		if (dumper == null) {
+			dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+				Thread thread = new Thread(task, "metrics-dump");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+
+		return dumper.scheduleAtFixedRate(() -> out.println(getSummary()), period_seconds, period_seconds, TimeUnit.SECONDS);
+	}
+}
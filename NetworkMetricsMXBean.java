@@ -0,0 +1,23 @@
+import java.util.Map;
+
+/**
+ *  The {@code NetworkMetricsMXBean} interface is the JMX view of
+ *  {@link NetworkMetrics}, registered as {@code BusNetwork:type=Metrics}.
+ *  Latencies are in microseconds, keyed by {@code count}, {@code mean},
+ *  {@code p50}, {@code p90}, {@code p99}, {@code p99.9} and {@code max}.
+ */
+public interface NetworkMetricsMXBean {
+	Map<String, Long> getLoadMillis(); // By phase, for the last load
+	Map<String, Long> getLoadRows();
+
+	Map<String, Map<String, Long>> getQueryLatencies(); // By query method
+
+	long getSearches();
+	long getNodesSettled();
+	long getEdgesRelaxed();
+	long getHeapOperations();
+
+	String getSummary(); // The periodic text dump
+
+	void reset(); // Clears the query latencies and search counters
+}
@@ -0,0 +1,285 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ *  The {@code NetworkSnapshot} class saves a fully built {@link BusNetwork} to a
+ *  binary file and restores it with a single mapped read, skipping the GTFS
+ *  parsing done by {@link BusNetwork#networkFromFiles}.
+ *  <p>
+ *  A snapshot holds the stop table with its string pool, the deduplicated routing
+ *  graph, the sorted trips with their times as seconds of the service day, the
+ *  transfers and the stop search trie. Its header records the size and
+ *  modification time of each source file plus a CRC32 of the payload, and
+ *  {@link #read} rejects it if any of those no longer match.
+ */
+public class NetworkSnapshot {
+	private static final int MAGIC = 0x424E5331; // "BNS1"
+	private static final int VERSION = 5;
+
+	// Writing
+
+	public static boolean write(BusNetwork network, String file, String... sources) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 20);
+			DataOutputStream out = new DataOutputStream(bytes);
+
+			writePayload(network, out);
+			out.flush();
+
+			byte[] payload = bytes.toByteArray();
+
+			CRC32 crc = new CRC32();
+			crc.update(payload);
+
+			// Writing to a temporary file first so a reader never sees half a snapshot
+			File target = new File(file);
+			File temp = new File(file + ".tmp");
+
+			try (DataOutputStream file_out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+				file_out.writeInt(MAGIC);
+				file_out.writeInt(VERSION);
+
+				file_out.writeInt(sources.length);
+				for (String source:sources) {
+					File f = new File(source);
+					file_out.writeLong(f.length());
+					file_out.writeLong(f.lastModified());
+				}
+
+				file_out.writeLong(crc.getValue());
+				file_out.writeInt(payload.length);
+				file_out.write(payload);
+			}
+
+			Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+
+		return true;
+	}
+
+	private static void writePayload(BusNetwork network, DataOutputStream out) throws IOException {
+		// Stops, column by column, then the string pool
+
+		StopTable table = network.stop_table;
+		out.writeInt(table.size());
+		for (int i = 0; i < table.size(); i++) {
+			out.writeInt(table.stop_ids[i]);
+			out.writeInt(table.stop_codes[i]);
+			out.writeDouble(table.lats[i]);
+			out.writeDouble(table.lons[i]);
+			out.writeInt(table.names[i]);
+			out.writeInt(table.descs[i]);
+			out.writeInt(table.zones[i]);
+			out.writeInt(table.keys[i]);
+		}
+
+		out.writeInt(table.stringCount());
+		for (String str:table.strings)
+			writeString(out, str);
+
+		// Routing graph
+
+		CompactGraph graph = network.getGraph();
+		out.writeInt(graph.edgeCount());
+		for (int i = 0; i <= graph.nodeCount(); i++)
+			out.writeInt(graph.offsets[i]);
+		for (int e = 0; e < graph.edgeCount(); e++) {
+			out.writeInt(graph.targets[e]);
+			out.writeDouble(graph.costs[e]);
+			out.writeByte(graph.types[e]);
+		}
+
+		// Trips, already sorted
+
+		out.writeInt(network.trip_list.size());
+		for (BusNetwork.Trip trip:network.trip_list) {
+			out.writeInt(trip.id);
+			out.writeInt(trip.stops.size());
+			for (int i = 0; i < trip.stops.size(); i++) {
+				out.writeInt(trip.stops.get(i).node_id);
+				out.writeInt(trip.getTime(i));
+			}
+		}
+
+		// Transfers
+
+		BusNetwork.TransferList transfers = network.transfers != null ? network.transfers : new BusNetwork.TransferList();
+		out.writeInt(transfers.count);
+		for (int i = 0; i < transfers.count; i++) {
+			out.writeInt(transfers.from[i]);
+			out.writeInt(transfers.to[i]);
+			out.writeByte(transfers.type[i]);
+			out.writeInt(transfers.min_time[i]);
+			out.writeDouble(transfers.cost[i]);
+		}
+
+		// Search trie
+
+		network.getStopSearch().writeTo(out, stop -> stop.node_id);
+	}
+
+	private static void writeString(DataOutputStream out, String str) throws IOException {
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	// Reading
+
+	public static BusNetwork read(String file, String... sources) { // Returns null if missing, corrupt or older than any source file
+		File snapshot = new File(file);
+		if (!snapshot.isFile()) return null;
+
+		long start = System.nanoTime();
+
+		// Checking the header with a plain read, and mapping the payload only if the snapshot is
+		// up to date. A stale one is then never left mapped, which on Windows would stop write
+		// from replacing it.
+
+		int header_length = 3 * Integer.BYTES + sources.length * 2 * Long.BYTES + Long.BYTES + Integer.BYTES;
+		ByteBuffer header = ByteBuffer.allocate(header_length);
+		ByteBuffer in;
+		long checksum;
+
+		try (FileChannel channel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ)) {
+			while (header.hasRemaining())
+				if (channel.read(header) < 0) return null; // Shorter than a header
+
+			header.flip();
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) return null;
+			if (header.getInt() != sources.length) return null;
+
+			for (String source:sources) {
+				File f = new File(source);
+				long length = header.getLong();
+				long modified = header.getLong();
+
+				if (!f.isFile() || f.length() != length || f.lastModified() != modified) return null;
+			}
+
+			checksum = header.getLong();
+			int payload_length = header.getInt();
+			if (payload_length != channel.size() - header_length) return null;
+
+			in = channel.map(FileChannel.MapMode.READ_ONLY, header_length, payload_length);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+
+		try {
+			CRC32 crc = new CRC32();
+			crc.update(in.duplicate());
+			if (crc.getValue() != checksum) return null;
+
+			BusNetwork network = readPayload(in);
+			NetworkMetrics.get().recordLoadPhase("snapshot", System.nanoTime() - start, network.trip_list.size()); // Counting trips restored
+
+			return network;
+		} catch (RuntimeException e) { // Truncated or malformed
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private static BusNetwork readPayload(ByteBuffer in) {
+		// Stops
+
+		int stop_count = in.getInt();
+		int[] stop_ids = new int[stop_count];
+		int[] stop_codes = new int[stop_count];
+		double[] lats = new double[stop_count];
+		double[] lons = new double[stop_count];
+		int[] names = new int[stop_count];
+		int[] descs = new int[stop_count];
+		int[] zones = new int[stop_count];
+		int[] keys = new int[stop_count];
+
+		for (int i = 0; i < stop_count; i++) {
+			stop_ids[i] = in.getInt();
+			stop_codes[i] = in.getInt();
+			lats[i] = in.getDouble();
+			lons[i] = in.getDouble();
+			names[i] = in.getInt();
+			descs[i] = in.getInt();
+			zones[i] = in.getInt();
+			keys[i] = in.getInt();
+		}
+
+		String[] strings = new String[in.getInt()];
+		for (int i = 0; i < strings.length; i++)
+			strings[i] = readString(in);
+
+		StopTable table = new StopTable(stop_ids, stop_codes, lats, lons, names, descs, zones, keys, strings);
+
+		// Routing graph
+
+		int edge_count = in.getInt();
+		int[] offsets = new int[stop_count+1];
+		int[] targets = new int[edge_count];
+		double[] costs = new double[edge_count];
+		byte[] types = new byte[edge_count];
+
+		for (int i = 0; i <= stop_count; i++)
+			offsets[i] = in.getInt();
+		for (int e = 0; e < edge_count; e++) {
+			targets[e] = in.getInt();
+			costs[e] = in.getDouble();
+			types[e] = in.get();
+		}
+
+		BusNetwork network = new BusNetwork(table, new CompactGraph(offsets, targets, costs, types));
+		List<BusNetwork.Stop> stops = network.stop_list;
+
+		// Trips
+
+		int trip_count = in.getInt();
+		List<BusNetwork.Trip> trips = new ArrayList<BusNetwork.Trip>(trip_count);
+
+		for (int t = 0; t < trip_count; t++) {
+			int id = in.getInt();
+			int length = in.getInt();
+			BusNetwork.Trip trip = new BusNetwork.Trip(id, length);
+
+			for (int i = 0; i < length; i++) {
+				BusNetwork.Stop stop = stops.get(in.getInt());
+				trip.appendStop(stop, in.getInt());
+			}
+
+			trips.add(trip);
+		}
+
+		// Transfers
+
+		int transfer_count = in.getInt();
+		BusNetwork.TransferList transfers = new BusNetwork.TransferList();
+
+		for (int i = 0; i < transfer_count; i++)
+			transfers.add(in.getInt(), in.getInt(), in.get(), in.getInt(), in.getDouble());
+
+		// Search trie
+
+		CompactTST<BusNetwork.Stop> search = CompactTST.readFrom(in, stops::get);
+
+		network.restore(trips, transfers, search);
+		return network;
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = in.getInt();
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,606 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ *  The {@code PathSearch} class runs shortest path queries over the
+ *  {@link CompactGraph} of a {@link BusNetwork}.
+ *  <p>
+ *  Besides plain Dijkstra it supports goal-directed A* and bidirectional
+ *  search. The A* heuristic is the larger of two lower bounds on the cost to
+ *  the target. One is the haversine distance multiplied by the smallest
+ *  cost-per-kilometre of any edge in the graph. Edges that cost nothing but
+ *  cover distance, such as type 2 transfers, drive that factor to zero. The
+ *  other comes from {@link Landmarks}, built on the first A* query, and holds
+ *  whatever the edges cost. Neither overestimates, so A* finds the same costs
+ *  as Dijkstra.
+ *  <p>
+ *  For analytics it also answers one-to-all queries, as a tree of costs and
+ *  predecessors, and many-to-many queries, as a flat matrix of costs. The
+ *  searches for a matrix run one per source on the common ForkJoin pool.
+ *  <p>
+ *  Dijkstra, A* and the matrix searches work in a {@link SearchWorkspace}
+ *  kept by the calling thread, or borrowed from a pool once
+ *  {@link #setPooledWorkspaces} is set, as the query server does for its
+ *  virtual threads, so a query allocates nothing in proportion to the
+ *  network's size. Each
+ *  search counts the nodes it settles, edges it relaxes and heap operations it
+ *  does, and adds them to {@link NetworkMetrics} when it finishes.
+ */
+public class PathSearch {
+	private static final double EARTH_RADIUS_KM = 6371.0;
+
+	// Result of a search
+
+	public static class Result {
+		int[] nodes; // Node ids from source to target
+		double cost;
+		int settled; // Nodes removed from the queue(s) during the search
+	}
+
+	// Result of a one-to-all search
+
+	public static class Tree {
+		int source;
+		double[] dist; // Double.MAX_VALUE if unreachable
+		int[] came_from; // Parent of each node in the tree, -1 at the source and unreachable nodes
+		int settled;
+
+		public double[] getCosts() { // Indexed by node id
+			return dist;
+		}
+
+		public int[] getPredecessors() { // Indexed by node id
+			return came_from;
+		}
+
+		public boolean reaches(int target) {
+			return dist[target] != Double.MAX_VALUE;
+		}
+
+		public double cost(int target) {
+			return dist[target];
+		}
+
+		public Result pathTo(int target) { // Null if target can't be reached
+			if (!reaches(target)) return null;
+			return buildResult(came_from, null, source, target, target, dist[target], settled);
+		}
+	}
+
+	private final CompactGraph graph;
+	private CompactGraph reverse_graph; // Built on first bidirectional query
+	private volatile Landmarks landmarks; // Built on first A* query
+
+	private static final int LANDMARK_COUNT = 16;
+
+	private static final int MAX_IDLE_WORKSPACES = 64;
+
+	private final ThreadLocal<SearchWorkspace> local_workspace;
+	private final SearchWorkspace.Pool workspace_pool; // For callers on many short lived threads
+	private volatile boolean pooled = false;
+
+	private final double[] lat_rad;
+	private final double[] lon_rad;
+	private final double[] cos_lat;
+	private final double heuristic_scale; // Lower bound on cost per km
+
+	public PathSearch(CompactGraph graph, double[] lat, double[] lon) {
+		this.graph = graph;
+
+		int n = graph.nodeCount();
+		local_workspace = ThreadLocal.withInitial(() -> new SearchWorkspace(n));
+		workspace_pool = new SearchWorkspace.Pool(n, MAX_IDLE_WORKSPACES);
+
+		lat_rad = new double[n];
+		lon_rad = new double[n];
+		cos_lat = new double[n];
+
+		for (int i = 0; i < n; i++) {
+			lat_rad[i] = Math.toRadians(lat[i]);
+			lon_rad[i] = Math.toRadians(lon[i]);
+			cos_lat[i] = Math.cos(lat_rad[i]);
+		}
+
+		// Cheapest cost per km over all edges, so cost >= scale * distance holds for every edge
+
+		double scale = Double.POSITIVE_INFINITY;
+		for (int node = 0; node < n; node++) {
+			for (int e = graph.offsets[node]; e < graph.offsets[node+1]; e++) {
+				double km = haversine(node, graph.targets[e]);
+				if (km <= 0) continue;
+
+				scale = Math.min(scale, graph.costs[e] / km);
+			}
+		}
+
+		heuristic_scale = Double.isInfinite(scale) ? 0 : scale;
+	}
+
+	public double getHeuristicScale() {
+		return heuristic_scale;
+	}
+
+	public double distance(int a, int b) { // Haversine distance between two nodes in km
+		return haversine(a, b);
+	}
+
+	private double haversine(int a, int b) { // Private, so the constructor can use it before a subclass is set up
+		double d_lat = lat_rad[b] - lat_rad[a];
+		double d_lon = lon_rad[b] - lon_rad[a];
+
+		double sin_lat = Math.sin(d_lat / 2);
+		double sin_lon = Math.sin(d_lon / 2);
+
+		double h = sin_lat * sin_lat + cos_lat[a] * cos_lat[b] * sin_lon * sin_lon;
+		return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(h)));
+	}
+
+	private double lowerBound(int a, int b) {
+		double ret = heuristic_scale == 0 ? 0 : heuristic_scale * haversine(a, b);
+
+		Landmarks known = landmarks;
+		if (known != null) ret = Math.max(ret, known.lowerBound(a, b));
+
+		return ret;
+	}
+
+	private SearchWorkspace acquireWorkspace() {
+		if (pooled)
+			return workspace_pool.acquire();
+
+		return local_workspace.get();
+	}
+
+	private void releaseWorkspace(SearchWorkspace workspace) {
+		if (workspace.lent) // Whatever the setting is now
+			workspace_pool.release(workspace);
+	}
+
+	public void setPooledWorkspaces(boolean pooled) { // Borrows workspaces from the pool instead of keeping one per thread, for callers such as virtual threads that are too many for one each
+		this.pooled = pooled;
+	}
+
+	public boolean hasPooledWorkspaces() {
+		return pooled;
+	}
+
+	public SearchWorkspace.Pool getWorkspacePool() {
+		return workspace_pool;
+	}
+
+	private synchronized CompactGraph getReverseGraph() {
+		if (reverse_graph == null)
+			reverse_graph = graph.reverse();
+
+		return reverse_graph;
+	}
+
+	public synchronized Landmarks getLandmarks() {
+		if (landmarks == null)
+			landmarks = new Landmarks(graph, getReverseGraph(), LANDMARK_COUNT);
+
+		return landmarks;
+	}
+
+	// Dijkstra
+
+	public Result dijkstra(int source, int target, BusNetwork.HeapType heap_type) {
+		SearchWorkspace workspace = acquireWorkspace();
+		try {
+			int settled = dijkstra(source, target, heap_type, workspace);
+
+			double cost = workspace.distance(target);
+			if (cost == Double.MAX_VALUE) return null; // Queue was fully exhausted = no path found
+
+			return buildResult(workspace.came_from, null, source, target, target, cost, settled);
+		} finally {
+			releaseWorkspace(workspace);
+		}
+	}
+
+	public Tree shortestPathTree(int source) { // Costs and parents of the cheapest paths from source to every node
+		int n = graph.nodeCount();
+
+		Tree tree = new Tree();
+		tree.source = source;
+		tree.dist = new double[n];
+		tree.came_from = new int[n];
+
+		SearchWorkspace workspace = acquireWorkspace();
+		try {
+			tree.settled = dijkstra(source, -1, BusNetwork.HeapType.INDEXED, workspace);
+
+			for (int node = 0; node < n; node++) {
+				tree.dist[node] = workspace.distance(node);
+				tree.came_from[node] = workspace.parent(node);
+			}
+		} finally {
+			releaseWorkspace(workspace);
+		}
+
+		return tree;
+	}
+
+	private int dijkstra(int source, int target, BusNetwork.HeapType heap_type, SearchWorkspace workspace) { // Searches in workspace, settling every reachable node if target is -1, and returns the number settled
+		int[] offsets = graph.offsets;
+		int[] targets = graph.targets;
+		double[] costs = graph.costs;
+
+		double[] dist = workspace.dist;
+		int[] came_from = workspace.came_from;
+
+		workspace.begin();
+		workspace.touch(source);
+		dist[source] = 0;
+
+		int settled = 0;
+		int relaxed = 0;
+		int heap_ops = 1; // Counting the source's insert
+
+		if (heap_type == BusNetwork.HeapType.INDEXED) {
+			IndexMinPQ queue = workspace.queue;
+			queue.insert(source, 0);
+
+			while (!queue.isEmpty()) {
+				int current_node = queue.delMin();
+				settled++;
+				heap_ops++;
+
+				if (current_node == target) break; // Found target stop, exit early
+
+				double current_cost = dist[current_node];
+				relaxed += offsets[current_node+1] - offsets[current_node];
+
+				for (int e = offsets[current_node]; e < offsets[current_node+1]; e++) {
+					int to_check = targets[e];
+					workspace.touch(to_check);
+
+					double new_cost = current_cost + costs[e];
+					if (dist[to_check] <= new_cost) continue;
+
+					dist[to_check] = new_cost;
+					came_from[to_check] = current_node;
+					heap_ops++;
+
+					if (queue.contains(to_check))
+						queue.decreaseKey(to_check, new_cost);
+					else
+						queue.insert(to_check, new_cost);
+				}
+			}
+		} else {
+			LazyMinPQ queue = workspace.lazy_queue;
+			queue.insert(source, 0);
+
+			while (!queue.isEmpty()) {
+				double current_cost = queue.minKey();
+				int current_node = queue.delMin();
+				heap_ops++;
+				if (current_cost > dist[current_node]) continue; // Stale entry, node was already settled cheaper
+
+				settled++;
+
+				if (current_node == target) break; // Found target stop, exit early
+
+				relaxed += offsets[current_node+1] - offsets[current_node];
+
+				for (int e = offsets[current_node]; e < offsets[current_node+1]; e++) {
+					int to_check = targets[e];
+					workspace.touch(to_check);
+
+					double new_cost = current_cost + costs[e];
+					if (dist[to_check] <= new_cost) continue;
+
+					dist[to_check] = new_cost;
+					came_from[to_check] = current_node;
+					queue.insert(to_check, new_cost);
+					heap_ops++;
+				}
+			}
+		}
+
+		NetworkMetrics.get().recordSearch(settled, relaxed, heap_ops);
+		return settled;
+	}
+
+	// Many-to-many
+
+	public double[] costMatrix(int[] sources, int[] targets) { // Row-major, sources by targets, with Double.POSITIVE_INFINITY where a target can't be reached
+		int n = graph.nodeCount();
+		int width = targets.length;
+		double[] matrix = new double[sources.length * width];
+
+		boolean[] is_target = new boolean[n];
+		int target_count = 0;
+		for (int target:targets) {
+			if (is_target[target]) continue;
+			is_target[target] = true;
+			target_count++;
+		}
+
+		int distinct_targets = target_count;
+
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(sources.length);
+
+		for (int s = 0; s < sources.length; s++) {
+			int row = s;
+
+			tasks.add(pool.submit(() -> {
+				SearchWorkspace workspace = acquireWorkspace();
+				try {
+					settleTargets(sources[row], is_target, distinct_targets, workspace);
+
+					for (int t = 0; t < width; t++) {
+						double cost = workspace.distance(targets[t]);
+						matrix[row * width + t] = cost == Double.MAX_VALUE ? Double.POSITIVE_INFINITY : cost;
+					}
+				} finally {
+					releaseWorkspace(workspace);
+				}
+			}));
+		}
+
+		for (ForkJoinTask<?> task:tasks)
+			task.join();
+
+		return matrix;
+	}
+
+	private void settleTargets(int source, boolean[] is_target, int target_count, SearchWorkspace workspace) { // Dijkstra from source in workspace, stopping once every target is settled
+		int[] offsets = graph.offsets;
+		int[] targets = graph.targets;
+		double[] costs = graph.costs;
+
+		double[] dist = workspace.dist;
+		IndexMinPQ queue = workspace.queue;
+
+		workspace.begin();
+		workspace.touch(source);
+		dist[source] = 0;
+		queue.insert(source, 0);
+
+		int remaining = target_count;
+		int settled = 0;
+		int relaxed = 0;
+		int heap_ops = 1;
+
+		while (!queue.isEmpty()) {
+			int current_node = queue.delMin();
+			settled++;
+			heap_ops++;
+
+			if (is_target[current_node] && --remaining == 0) break; // All targets settled
+
+			double current_cost = dist[current_node];
+			relaxed += offsets[current_node+1] - offsets[current_node];
+
+			for (int e = offsets[current_node]; e < offsets[current_node+1]; e++) {
+				int to_check = targets[e];
+				workspace.touch(to_check);
+
+				double new_cost = current_cost + costs[e];
+				if (dist[to_check] <= new_cost) continue;
+
+				dist[to_check] = new_cost;
+				heap_ops++;
+
+				if (queue.contains(to_check))
+					queue.decreaseKey(to_check, new_cost);
+				else
+					queue.insert(to_check, new_cost);
+			}
+		}
+
+		NetworkMetrics.get().recordSearch(settled, relaxed, heap_ops);
+	}
+
+	// A*
+
+	public Result astar(int source, int target) {
+		getLandmarks();
+
+		SearchWorkspace workspace = acquireWorkspace();
+		try {
+			return astar(source, target, workspace);
+		} finally {
+			releaseWorkspace(workspace);
+		}
+	}
+
+	private Result astar(int source, int target, SearchWorkspace workspace) {
+		int[] offsets = graph.offsets;
+		int[] targets = graph.targets;
+		double[] costs = graph.costs;
+
+		double[] dist = workspace.dist;
+		double[] bound = workspace.bound; // Cached heuristic, NaN until first computed
+		int[] came_from = workspace.came_from;
+
+		IndexMinPQ queue = workspace.queue;
+
+		workspace.begin();
+		workspace.touch(source);
+		dist[source] = 0;
+		bound[source] = lowerBound(source, target);
+		queue.insert(source, bound[source]);
+
+		int settled = 0;
+		int relaxed = 0;
+		int heap_ops = 1;
+		boolean found = false;
+
+		while (!queue.isEmpty()) {
+			int current_node = queue.delMin();
+			settled++;
+			heap_ops++;
+
+			if (current_node == target) {
+				found = true;
+				break;
+			}
+
+			double current_cost = dist[current_node];
+			relaxed += offsets[current_node+1] - offsets[current_node];
+
+			for (int e = offsets[current_node]; e < offsets[current_node+1]; e++) {
+				int to_check = targets[e];
+				workspace.touch(to_check);
+
+				double new_cost = current_cost + costs[e];
+				if (dist[to_check] <= new_cost) continue;
+
+				if (Double.isNaN(bound[to_check]))
+					bound[to_check] = lowerBound(to_check, target);
+
+				dist[to_check] = new_cost;
+				came_from[to_check] = current_node;
+				heap_ops++;
+
+				double key = new_cost + bound[to_check];
+				if (queue.contains(to_check))
+					queue.decreaseKey(to_check, key);
+				else
+					queue.insert(to_check, key);
+			}
+		}
+
+		NetworkMetrics.get().recordSearch(settled, relaxed, heap_ops);
+		if (!found) return null;
+
+		return buildResult(came_from, null, source, target, target, dist[target], settled);
+	}
+
+	// Bidirectional Dijkstra / A*
+
+	public Result bidirectional(int source, int target, boolean use_heuristic) {
+		CompactGraph reverse = getReverseGraph();
+		if (use_heuristic) getLandmarks();
+		int n = graph.nodeCount();
+
+		double[] dist_f = new double[n];
+		double[] dist_b = new double[n];
+		int[] came_from = new int[n]; // Forward predecessor
+		int[] goes_to = new int[n]; // Backward successor (next node towards the target)
+		double[] potential = new double[n]; // Average potential, NaN until first computed
+
+		Arrays.fill(dist_f, Double.MAX_VALUE);
+		Arrays.fill(dist_b, Double.MAX_VALUE);
+		Arrays.fill(came_from, -1);
+		Arrays.fill(goes_to, -1);
+		Arrays.fill(potential, use_heuristic ? Double.NaN : 0);
+
+		IndexMinPQ queue_f = new IndexMinPQ(n);
+		IndexMinPQ queue_b = new IndexMinPQ(n);
+
+		// Forward keys are dist_f + p, backward keys are dist_b - p, where
+		// p(v) = (h_target(v) - h_source(v)) / 2 keeps both sides consistent.
+		// With these keys the search can stop once min_f + min_b >= best.
+
+		dist_f[source] = 0;
+		dist_b[target] = 0;
+		queue_f.insert(source, potential(potential, source, source, target));
+		queue_b.insert(target, -potential(potential, target, source, target));
+
+		double best = Double.MAX_VALUE;
+		int meeting = source == target ? source : -1;
+		if (meeting != -1) best = 0;
+
+		int settled = 0;
+		int relaxed = 0;
+		int heap_ops = 2;
+
+		while (!queue_f.isEmpty() && !queue_b.isEmpty()) {
+			if (queue_f.minKey() + queue_b.minKey() >= best) break;
+
+			boolean forward = queue_f.minKey() <= queue_b.minKey();
+
+			IndexMinPQ queue = forward ? queue_f : queue_b;
+			CompactGraph side = forward ? graph : reverse;
+			double[] dist = forward ? dist_f : dist_b;
+			double[] other_dist = forward ? dist_b : dist_f;
+			int[] parent = forward ? came_from : goes_to;
+			double sign = forward ? 1 : -1;
+
+			int current_node = queue.delMin();
+			settled++;
+			heap_ops++;
+
+			double current_cost = dist[current_node];
+			relaxed += side.offsets[current_node+1] - side.offsets[current_node];
+
+			for (int e = side.offsets[current_node]; e < side.offsets[current_node+1]; e++) {
+				int to_check = side.targets[e];
+
+				double new_cost = current_cost + side.costs[e];
+				if (dist[to_check] <= new_cost) continue;
+
+				dist[to_check] = new_cost;
+				parent[to_check] = current_node;
+				heap_ops++;
+
+				double key = new_cost + sign * potential(potential, to_check, source, target);
+				if (queue.contains(to_check))
+					queue.decreaseKey(to_check, key);
+				else
+					queue.insert(to_check, key);
+
+				if (other_dist[to_check] != Double.MAX_VALUE && new_cost + other_dist[to_check] < best) {
+					best = new_cost + other_dist[to_check];
+					meeting = to_check;
+				}
+			}
+		}
+
+		NetworkMetrics.get().recordSearch(settled, relaxed, heap_ops);
+		if (meeting == -1) return null;
+
+		return buildResult(came_from, goes_to, source, target, meeting, best, settled);
+	}
+
+	private double potential(double[] cache, int node, int source, int target) {
+		double p = cache[node];
+		if (Double.isNaN(p)) {
+			p = (lowerBound(node, target) - lowerBound(source, node)) / 2;
+			cache[node] = p;
+		}
+
+		return p;
+	}
+
+	// Path reconstruction
+
+	private static Result buildResult(int[] came_from, int[] goes_to, int source, int target, int meeting, double cost, int settled) {
+		int length = 1;
+		for (int node = meeting; node != source; node = came_from[node])
+			length++;
+		if (goes_to != null)
+			for (int node = meeting; node != target; node = goes_to[node])
+				length++;
+
+		int[] nodes = new int[length];
+
+		int i = 0;
+		for (int node = meeting; node != source; node = came_from[node])
+			i++;
+		for (int node = meeting, j = i; node != source; node = came_from[node], j--)
+			nodes[j] = node;
+		nodes[0] = source;
+
+		if (goes_to != null)
+			for (int node = meeting; node != target; ) {
+				node = goes_to[node];
+				nodes[++i] = node;
+			}
+
+		Result result = new Result();
+		result.nodes = nodes;
+		result.cost = cost;
+		result.settled = settled;
+
+		return result;
+	}
+}
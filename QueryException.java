@@ -0,0 +1,19 @@
+/**
+ *  The {@code QueryException} class is thrown for a query that can't be
+ *  answered, with a message saying why. {@link QueryServer} answers it with its
+ *  HTTP status, and {@link BatchQueries} reports it on the query's output line.
+ */
+class QueryException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	final int status; // HTTP status
+
+	QueryException(String message) { // A malformed query
+		this(400, message);
+	}
+
+	QueryException(int status, String message) {
+		super(message);
+		this.status = status;
+	}
+}
@@ -0,0 +1,63 @@
+/**
+ *  The {@code QueryJson} class writes the answers of a {@link BusNetwork} as
+ *  {@link Json}, in the same shape for {@link QueryServer} and
+ *  {@link BatchQueries}. An answer listing stops or trips gives the number
+ *  found as {@code count} and the number it lists, up to a limit, as
+ *  {@code listed}.
+ */
+class QueryJson {
+	static void writeCounts(Json json, int count, int limit) { // Fields of a list answer, inside an open object
+		json.name("count").value(count);
+		json.name("listed").value(Math.max(0, Math.min(count, limit)));
+	}
+
+	static void writePathFields(Json json, BusNetwork.Path path) { // Fields of a route answer, inside an open object
+		json.name("found").value(path != null);
+		if (path == null) return;
+
+		json.name("cost").value(path.cost);
+		json.name("stops").beginArray();
+
+		BusNetwork.Stop last = null;
+		for (BusNetwork.Stop stop:path.stops) {
+			json.beginObject();
+			json.name("id").value(stop.getStopId());
+			json.name("name").value(stop.getName());
+			if (last != null)
+				json.name("transfer").value(last.getConnection(stop).type != 0);
+			json.endObject();
+
+			last = stop;
+		}
+
+		json.endArray();
+	}
+
+	static void writeTrip(Json json, BusNetwork.Trip trip) {
+		json.beginObject();
+		json.name("id").value(trip.id);
+		json.name("end").value(BusNetwork.formatTime(trip.last_time));
+		json.name("stops").beginArray();
+		for (int s = 0; s < trip.stops.size(); s++) {
+			json.beginObject();
+			json.name("id").value(trip.stops.get(s).getStopId());
+			json.name("name").value(trip.stops.get(s).getName());
+			json.name("time").value(BusNetwork.formatTime(trip.getTime(s)));
+			json.endObject();
+		}
+		json.endArray();
+		json.endObject();
+	}
+
+	static void writeStop(Json json, BusNetwork.Stop stop) {
+		json.beginObject();
+		json.name("id").value(stop.getStopId());
+		json.name("code").value(stop.getStopCode());
+		json.name("name").value(stop.getName());
+		json.name("desc").value(stop.getDesc());
+		json.name("lat").value(stop.getLat());
+		json.name("lon").value(stop.getLon());
+		json.name("zone").value(stop.getZone());
+		json.endObject();
+	}
+}
@@ -0,0 +1,310 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ *  The {@code QueryServer} class answers stop search, routing and timetable
+ *  queries over HTTP, returning JSON, from a {@link BusNetwork} frozen before the
+ *  server starts so every request can read it without locking.
+ *  <p>
+ *  The network is held by a {@link LiveNetwork}, and each request answers from
+ *  the version current when it arrives. Delta files named on standard input
+ *  while the server runs are applied without interrupting requests.
+ *  <p>
+ *  Each request runs on its own virtual thread. The time taken by each endpoint
+ *  is recorded in a {@link LatencyHistogram}, reported by {@code /stats} along
+ *  with the search counters of {@link NetworkMetrics}. Those are also
+ *  published over JMX and printed every minute.
+ *  <p>
+ *  Endpoints, all {@code GET}:
+ *  <ul>
+ *  <li>{@code /stops?q=HAST&type=prefix|fuzzy|token&limit=20}</li>
+ *  <li>{@code /route?from=<stop_id>&to=<stop_id>}</li>
+ *  <li>{@code /trips?from=17:00&to=17:30&limit=100}, by end time</li>
+ *  <li>{@code /stats}</li>
+ *  </ul>
+ *  <p>
+ *  Usage: {@code java QueryServer [port] [stops file] [transfers file] [stop times file]}, then a delta file per line to apply
+ */
+public class QueryServer {
+	public static final int DEFAULT_PORT = 8080;
+	private static final int DEFAULT_LIMIT = 20;
+	private static final int DEFAULT_TRIP_LIMIT = 100;
+	private static final int METRICS_DUMP_SECONDS = 60;
+
+	private final LiveNetwork live;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<String, LatencyHistogram>();
+
+	private interface Handler {
+		String handle(BusNetwork network, Map<String, String> params); // Returns the JSON response
+	}
+
+	public QueryServer(BusNetwork network, int port) throws IOException {
+		this(new LiveNetwork(network), port);
+	}
+
+	public QueryServer(LiveNetwork live, int port) throws IOException {
+		this.live = live;
+		this.server = HttpServer.create(new InetSocketAddress(port), 0);
+		this.executor = Executors.newVirtualThreadPerTaskExecutor();
+
+		live.get().setPooledWorkspaces(true); // Too many virtual threads for a search workspace each, and later versions keep the setting
+
+		server.setExecutor(executor);
+
+		route("/stops", this::stops);
+		route("/route", this::route);
+		route("/trips", this::trips);
+		route("/stats", (network, params) -> stats(network));
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdown();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public LiveNetwork getLiveNetwork() {
+		return live;
+	}
+
+	public LatencyHistogram getLatency(String path) { // Null if the endpoint hasn't been called
+		return latencies.get(path);
+	}
+
+	// Dispatch
+
+	private void route(String path, Handler handler) {
+		LatencyHistogram latency = new LatencyHistogram();
+		latencies.put(path, latency);
+
+		server.createContext(path, exchange -> {
+			long start = System.nanoTime();
+			try {
+				serve(exchange, handler);
+			} finally {
+				latency.record(System.nanoTime() - start);
+			}
+		});
+	}
+
+	private void serve(HttpExchange exchange, Handler handler) throws IOException {
+		int status = 200;
+		String body;
+
+		try {
+			if (!exchange.getRequestMethod().equals("GET"))
+				throw new QueryException(405, "Only GET is supported");
+
+			body = handler.handle(live.get(), parseQuery(exchange.getRequestURI().getRawQuery())); // One version for the whole request
+		} catch (QueryException e) {
+			status = e.status;
+			body = new Json().beginObject().name("error").value(e.getMessage()).endObject().toString();
+		} catch (RuntimeException e) {
+			status = 500;
+			body = new Json().beginObject().name("error").value(e.toString()).endObject().toString();
+		}
+
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private static Map<String, String> parseQuery(String query) {
+		Map<String, String> params = new HashMap<String, String>();
+		if (query == null || query.isEmpty()) return params;
+
+		for (String pair:query.split("&")) {
+			int equals = pair.indexOf('=');
+			String key = equals < 0 ? pair : pair.substring(0, equals);
+			String value = equals < 0 ? "" : pair.substring(equals + 1);
+
+			params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+		}
+
+		return params;
+	}
+
+	private static String required(Map<String, String> params, String name) {
+		String value = params.get(name);
+		if (value == null) throw new QueryException(400, "Missing parameter " + name);
+
+		return value;
+	}
+
+	private static int intParam(Map<String, String> params, String name, int fallback) {
+		String value = params.get(name);
+		if (value == null) return fallback;
+
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new QueryException(400, "Parameter " + name + " must be a number");
+		}
+	}
+
+	private static LocalTime timeParam(Map<String, String> params, String name) {
+		try {
+			return LocalTime.parse(required(params, name));
+		} catch (DateTimeParseException e) {
+			throw new QueryException(400, "Parameter " + name + " must be a time such as 17:30");
+		}
+	}
+
+	private static BusNetwork.Stop stopParam(BusNetwork network, Map<String, String> params, String name) {
+		String id = required(params, name);
+
+		BusNetwork.Stop stop = network.getStopById(intParam(params, name, -1));
+		if (stop == null) throw new QueryException(404, "No stop with id " + id);
+
+		return stop;
+	}
+
+	// Endpoints
+
+	private String stops(BusNetwork network, Map<String, String> params) {
+		String term = required(params, "q").toUpperCase();
+		int limit = Math.max(0, intParam(params, "limit", DEFAULT_LIMIT));
+
+		BusNetwork.SearchType type;
+		try {
+			type = BusNetwork.SearchType.valueOf(params.getOrDefault("type", "prefix").toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new QueryException(400, "Parameter type must be prefix, fuzzy or token");
+		}
+
+		List<BusNetwork.Stop> found = type == BusNetwork.SearchType.PREFIX ? network.searchStops(term, limit) : network.searchStops(term, type);
+		int count = type == BusNetwork.SearchType.PREFIX ? network.countStops(term) : found.size();
+
+		Json json = new Json().beginObject();
+		QueryJson.writeCounts(json, count, limit);
+		json.name("stops").beginArray();
+		for (int i = 0; i < found.size() && i < limit; i++)
+			QueryJson.writeStop(json, found.get(i));
+		json.endArray();
+
+		return json.endObject().toString();
+	}
+
+	private String route(BusNetwork network, Map<String, String> params) {
+		BusNetwork.Stop from = stopParam(network, params, "from");
+		BusNetwork.Stop to = stopParam(network, params, "to");
+
+		Json json = new Json().beginObject();
+		QueryJson.writePathFields(json, network.getCachedPath(from, to));
+
+		return json.endObject().toString();
+	}
+
+	private String trips(BusNetwork network, Map<String, String> params) {
+		LocalTime from = timeParam(params, "from");
+		LocalTime to = params.containsKey("to") ? timeParam(params, "to") : from;
+		int limit = Math.max(0, intParam(params, "limit", DEFAULT_TRIP_LIMIT));
+
+		List<BusNetwork.Trip> found = network.getTripsBetween(from, to);
+
+		Json json = new Json().beginObject();
+		QueryJson.writeCounts(json, found.size(), limit);
+		json.name("trips").beginArray();
+
+		for (int i = 0; i < found.size() && i < limit; i++)
+			QueryJson.writeTrip(json, found.get(i));
+
+		json.endArray();
+		return json.endObject().toString();
+	}
+
+	private String stats(BusNetwork network) {
+		Json json = new Json().beginObject();
+		json.name("version").value(live.getVersion());
+
+		for (Map.Entry<String, LatencyHistogram> entry:new TreeMap<String, LatencyHistogram>(latencies).entrySet()) {
+			LatencyHistogram latency = entry.getValue();
+
+			json.name(entry.getKey()).beginObject();
+			json.name("count").value(latency.getCount());
+			json.name("mean_us").value(latency.getMeanMicros());
+			json.name("p50_us").value(latency.percentileMicros(50));
+			json.name("p90_us").value(latency.percentileMicros(90));
+			json.name("p99_us").value(latency.percentileMicros(99));
+			json.name("p999_us").value(latency.percentileMicros(99.9));
+			json.name("max_us").value(latency.getMaxMicros());
+			json.endObject();
+		}
+
+		NetworkMetrics metrics = NetworkMetrics.get();
+		json.name("searches").value(metrics.getSearches());
+		json.name("nodes_settled").value(metrics.getNodesSettled());
+		json.name("edges_relaxed").value(metrics.getEdgesRelaxed());
+		json.name("heap_operations").value(metrics.getHeapOperations());
+
+		json.name("route_cache").value(network.getRouteCache().toString());
+		return json.endObject().toString();
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		String stops_file = args.length > 1 ? args[1] : "src/stops.txt";
+		String transfers_file = args.length > 2 ? args[2] : "src/transfers.txt";
+		String stop_times_file = args.length > 3 ? args[3] : "src/stop_times.txt";
+
+		BusNetwork network = MainProgramme.loadNetwork(stops_file, transfers_file, stop_times_file, stop_times_file + ".snapshot");
+		if (network == null) {
+			System.out.println("Error finding file, exiting...");
+			return;
+		}
+
+		QueryServer query_server = new QueryServer(network, port);
+		query_server.start();
+
+		System.out.println("Serving on http://localhost:" + query_server.getPort() + "/ (stops, route, trips, stats)");
+
+		NetworkMetrics metrics = NetworkMetrics.get();
+		if (metrics.registerMBean()) System.out.println("Metrics published over JMX as BusNetwork:type=Metrics");
+		metrics.startDump(System.out, METRICS_DUMP_SECONDS);
+
+		// Applying delta files named on standard input
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+		String line;
+
+		while ((line = in.readLine()) != null) {
+			String delta_file = line.trim();
+			if (delta_file.isEmpty()) continue;
+
+			try {
+				query_server.getLiveNetwork().apply(delta_file);
+				System.out.println("Now serving version " + query_server.getLiveNetwork().getVersion());
+			} catch (IOException e) {
+				System.out.println("Couldn't read " + delta_file + ": " + e);
+			} catch (IllegalArgumentException e) {
+				System.out.println("Couldn't apply " + delta_file + ": " + e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,435 @@
+import java.util.*;
+
+/**
+ *  The {@code Raptor} class finds the Pareto optimal journeys between two stops,
+ *  trading arrival time against the number of trips taken, using the
+ *  Round-bAsed Public Transit Optimized Router.
+ *  <p>
+ *  Trips are grouped into routes by their stop sequence, further split so that no
+ *  trip on a route overtakes an earlier one, and every timetable is laid out in
+ *  flat arrays. Round {@code k} scans each route serving a stop improved in the
+ *  previous round, so after it the arrival at every stop using at most {@code k}
+ *  trips is known. No preprocessing beyond building the arrays is needed.
+ *  <p>
+ *  Trips are cut short and transfers taken by the same rules as
+ *  {@link ConnectionScan}, so both see the same timetable.
+ */
+public class Raptor {
+	private static final int UNREACHED = Integer.MAX_VALUE;
+
+	private final List<BusNetwork.Stop> stops;
+
+	// Routes, each with its stops and its trips sorted by departure
+	private final int[] route_stop_offsets;
+	private final int[] route_stops;
+	private final int[] route_trip_offsets;
+	private final int[] route_time_offsets; // Times of each trip in turn, a route length apart
+	private final int[] times;
+
+	private final int[] trip_ids;
+	private final int[] trip_route;
+
+	// Routes serving each stop, with the stop's position along them
+	private final int[] stop_route_offsets;
+	private final int[] stop_routes;
+	private final int[] stop_positions;
+
+	// Transfers
+	private final int[] foot_offsets;
+	private final int[] foot_targets;
+	private final int[] foot_times;
+	private final int[] change_time;
+
+	public Raptor(List<BusNetwork.Stop> stops, List<BusNetwork.Trip> trips, BusNetwork.TransferList transfers) {
+		this.stops = stops;
+		int n = stops.size();
+
+		// Grouping trips by stop sequence, up to their last usable time
+
+		Map<List<Integer>, List<BusNetwork.Trip>> by_sequence = new LinkedHashMap<List<Integer>, List<BusNetwork.Trip>>();
+
+		for (BusNetwork.Trip trip:trips) {
+			int length = trip.usableLength();
+			if (length < 2) continue;
+
+			List<Integer> sequence = new ArrayList<Integer>(length);
+			for (int i = 0; i < length; i++)
+				sequence.add(trip.stops.get(i).node_id);
+
+			by_sequence.computeIfAbsent(sequence, k -> new ArrayList<BusNetwork.Trip>()).add(trip);
+		}
+
+		// Splitting each group into routes where no trip overtakes another
+
+		List<List<BusNetwork.Trip>> routes = new ArrayList<List<BusNetwork.Trip>>();
+
+		for (List<BusNetwork.Trip> group:by_sequence.values()) {
+			group.sort((a, b) -> {
+				int delta = Integer.compare(a.getTime(0), b.getTime(0));
+				return delta != 0 ? delta : Integer.compare(a.id, b.id);
+			});
+
+			List<List<BusNetwork.Trip>> lanes = new ArrayList<List<BusNetwork.Trip>>();
+			for (BusNetwork.Trip trip:group) {
+				List<BusNetwork.Trip> lane = null;
+				for (List<BusNetwork.Trip> candidate:lanes) {
+					if (!overtakes(trip, candidate.get(candidate.size()-1))) {
+						lane = candidate;
+						break;
+					}
+				}
+
+				if (lane == null) {
+					lane = new ArrayList<BusNetwork.Trip>();
+					lanes.add(lane);
+				}
+				lane.add(trip);
+			}
+
+			routes.addAll(lanes);
+		}
+
+		// Flattening routes into arrays
+
+		int route_count = routes.size();
+		int stop_total = 0;
+		int trip_total = 0;
+		int time_total = 0;
+
+		for (List<BusNetwork.Trip> route:routes) {
+			int length = route.get(0).usableLength();
+			stop_total += length;
+			trip_total += route.size();
+			time_total += length * route.size();
+		}
+
+		route_stop_offsets = new int[route_count+1];
+		route_stops = new int[stop_total];
+		route_trip_offsets = new int[route_count+1];
+		route_time_offsets = new int[route_count];
+		times = new int[time_total];
+		trip_ids = new int[trip_total];
+		trip_route = new int[trip_total];
+
+		int stop_pos = 0;
+		int trip_pos = 0;
+		int time_pos = 0;
+
+		for (int r = 0; r < route_count; r++) {
+			List<BusNetwork.Trip> route = routes.get(r);
+			int length = route.get(0).usableLength();
+
+			route_stop_offsets[r] = stop_pos;
+			for (int i = 0; i < length; i++)
+				route_stops[stop_pos++] = route.get(0).stops.get(i).node_id;
+
+			route_trip_offsets[r] = trip_pos;
+			route_time_offsets[r] = time_pos;
+			for (BusNetwork.Trip trip:route) {
+				trip_ids[trip_pos] = trip.id;
+				trip_route[trip_pos] = r;
+				trip_pos++;
+
+				for (int i = 0; i < length; i++)
+					times[time_pos++] = trip.getTime(i);
+			}
+		}
+
+		route_stop_offsets[route_count] = stop_pos;
+		route_trip_offsets[route_count] = trip_pos;
+
+		// Indexing routes by stop
+
+		stop_route_offsets = new int[n+1];
+		for (int i = 0; i < stop_total; i++)
+			stop_route_offsets[route_stops[i]+1]++;
+		for (int i = 0; i < n; i++)
+			stop_route_offsets[i+1] += stop_route_offsets[i];
+
+		int[] next = Arrays.copyOf(stop_route_offsets, n);
+		stop_routes = new int[stop_total];
+		stop_positions = new int[stop_total];
+
+		for (int r = 0; r < route_count; r++) {
+			for (int i = route_stop_offsets[r]; i < route_stop_offsets[r+1]; i++) {
+				int p = next[route_stops[i]]++;
+				stop_routes[p] = r;
+				stop_positions[p] = i - route_stop_offsets[r];
+			}
+		}
+
+		// Transfers
+
+		if (transfers == null) transfers = new BusNetwork.TransferList();
+
+		change_time = transfers.changeTimes(n);
+
+		int[][] walks = transfers.walks(n);
+		foot_offsets = walks[0];
+		foot_targets = walks[1];
+		foot_times = walks[2];
+	}
+
+	Raptor(Raptor previous, List<BusNetwork.Stop> stops) { // Same timetable for another version of the network's stops, sharing every array
+		this.stops = stops;
+		this.route_stop_offsets = previous.route_stop_offsets;
+		this.route_stops = previous.route_stops;
+		this.route_trip_offsets = previous.route_trip_offsets;
+		this.route_time_offsets = previous.route_time_offsets;
+		this.times = previous.times;
+		this.trip_ids = previous.trip_ids;
+		this.trip_route = previous.trip_route;
+		this.stop_route_offsets = previous.stop_route_offsets;
+		this.stop_routes = previous.stop_routes;
+		this.stop_positions = previous.stop_positions;
+		this.foot_offsets = previous.foot_offsets;
+		this.foot_targets = previous.foot_targets;
+		this.foot_times = previous.foot_times;
+		this.change_time = previous.change_time;
+	}
+
+	private static boolean overtakes(BusNetwork.Trip trip, BusNetwork.Trip earlier) { // Whether trip reaches any stop before a trip that left ahead of it
+		for (int i = 0; i < earlier.usableLength(); i++)
+			if (trip.getTime(i) < earlier.getTime(i))
+				return true;
+
+		return false;
+	}
+
+	public int routeCount() {
+		return route_trip_offsets.length - 1;
+	}
+
+	private int timeAt(int trip, int pos) { // Time of a trip at a position along its route
+		int r = trip_route[trip];
+		int length = route_stop_offsets[r+1] - route_stop_offsets[r];
+
+		return times[route_time_offsets[r] + (trip - route_trip_offsets[r]) * length + pos];
+	}
+
+	private int earliestTrip(int r, int pos, int time, int end) { // First trip of route r before end leaving pos at or after time, -1 if none
+		int first = route_trip_offsets[r];
+		int last = end;
+
+		while (first < last) {
+			int mid = (first + last) >>> 1;
+			if (timeAt(mid, pos) < time)
+				first = mid + 1;
+			else
+				last = mid;
+		}
+
+		return first < end ? first : -1;
+	}
+
+	public List<Journey> query(int source, int target, int departure, int max_transfers) { // Pareto set ordered by number of trips taken, empty if unreachable
+		int n = stops.size();
+		int rounds = max_transfers + 1;
+
+		// Labels for each round k, covering journeys of at most k trips
+		int[][] bus = new int[rounds+1][]; // Arrival by bus
+		int[][] ride_trip = new int[rounds+1][]; // Trip ridden to get there
+		int[][] ride_board = new int[rounds+1][]; // Position along the route it was boarded
+		int[][] walk = new int[rounds+1][]; // Arrival on foot
+		int[][] walked_from = new int[rounds+1][];
+
+		bus[0] = new int[n];
+		ride_trip[0] = new int[n];
+		ride_board[0] = new int[n];
+		walk[0] = new int[n];
+		walked_from[0] = new int[n];
+
+		Arrays.fill(bus[0], UNREACHED);
+		Arrays.fill(ride_trip[0], -1);
+		Arrays.fill(walk[0], UNREACHED);
+		Arrays.fill(walked_from[0], -1);
+
+		boolean[] marked = new boolean[n];
+		int[] marked_stops = new int[n];
+		int marked_count = 0;
+
+		walk[0][source] = departure;
+		marked[source] = true;
+		marked_stops[marked_count++] = source;
+
+		for (int f = foot_offsets[source]; f < foot_offsets[source+1]; f++) {
+			int to = foot_targets[f];
+			if (departure + foot_times[f] < walk[0][to]) {
+				walk[0][to] = departure + foot_times[f];
+				walked_from[0][to] = source;
+
+				if (!marked[to]) {
+					marked[to] = true;
+					marked_stops[marked_count++] = to;
+				}
+			}
+		}
+
+		List<Journey> journeys = new ArrayList<Journey>();
+		int best = walk[0][target];
+		if (best != UNREACHED)
+			journeys.add(buildJourney(0, source, target, departure, bus, ride_trip, ride_board, walk, walked_from));
+
+		int[] route_start = new int[routeCount()];
+		Arrays.fill(route_start, -1);
+		int[] queued_routes = new int[routeCount()];
+
+		boolean[] rode_to = new boolean[n];
+		int[] rode_stops = new int[n];
+
+		for (int k = 1; k <= rounds && marked_count > 0; k++) {
+			bus[k] = bus[k-1].clone();
+			ride_trip[k] = ride_trip[k-1].clone();
+			ride_board[k] = ride_board[k-1].clone();
+			walk[k] = walk[k-1].clone();
+			walked_from[k] = walked_from[k-1].clone();
+
+			// Queueing routes through the stops improved last round, from the earliest such stop
+
+			int queued_count = 0;
+			for (int i = 0; i < marked_count; i++) {
+				int stop = marked_stops[i];
+				marked[stop] = false;
+
+				for (int e = stop_route_offsets[stop]; e < stop_route_offsets[stop+1]; e++) {
+					int r = stop_routes[e];
+					if (route_start[r] == -1)
+						queued_routes[queued_count++] = r;
+					if (route_start[r] == -1 || stop_positions[e] < route_start[r])
+						route_start[r] = stop_positions[e];
+				}
+			}
+
+			int rode_count = 0;
+
+			// Scanning routes
+
+			for (int q = 0; q < queued_count; q++) {
+				int r = queued_routes[q];
+				int base = route_stop_offsets[r];
+				int length = route_stop_offsets[r+1] - base;
+
+				int trip = -1;
+				int board_pos = -1;
+
+				for (int pos = route_start[r]; pos < length; pos++) {
+					int stop = route_stops[base + pos];
+
+					if (trip != -1) { // Getting off here
+						int arrival = timeAt(trip, pos);
+						int target_best = Math.min(bus[k][target], walk[k][target]);
+
+						if (arrival < bus[k][stop] && arrival < target_best) {
+							bus[k][stop] = arrival;
+							ride_trip[k][stop] = trip;
+							ride_board[k][stop] = board_pos;
+
+							if (!rode_to[stop]) {
+								rode_to[stop] = true;
+								rode_stops[rode_count++] = stop;
+							}
+						}
+					}
+
+					// Catching an earlier trip here, using last round's arrival
+					int ready = readyTime(stop, bus[k-1], walk[k-1]);
+					if (ready != UNREACHED && (trip == -1 || ready <= timeAt(trip, pos))) {
+						int earlier = earliestTrip(r, pos, ready, trip == -1 ? route_trip_offsets[r+1] : trip);
+						if (earlier != -1) {
+							trip = earlier;
+							board_pos = pos;
+						}
+					}
+				}
+
+				route_start[r] = -1;
+			}
+
+			// Transfers from stops reached by bus this round
+
+			marked_count = 0;
+			for (int i = 0; i < rode_count; i++) {
+				int stop = rode_stops[i];
+				rode_to[stop] = false;
+
+				if (!marked[stop]) {
+					marked[stop] = true;
+					marked_stops[marked_count++] = stop;
+				}
+
+				for (int f = foot_offsets[stop]; f < foot_offsets[stop+1]; f++) {
+					int to = foot_targets[f];
+					int arrival = bus[k][stop] + foot_times[f];
+
+					if (arrival < walk[k][to]) {
+						walk[k][to] = arrival;
+						walked_from[k][to] = stop;
+
+						if (!marked[to]) {
+							marked[to] = true;
+							marked_stops[marked_count++] = to;
+						}
+					}
+				}
+			}
+
+			int arrival = Math.min(bus[k][target], walk[k][target]);
+			if (arrival < best) {
+				best = arrival;
+				journeys.add(buildJourney(k, source, target, departure, bus, ride_trip, ride_board, walk, walked_from));
+			}
+		}
+
+		return journeys;
+	}
+
+	private int readyTime(int stop, int[] bus, int[] walk) { // Earliest time a new trip can be boarded at stop
+		int ready = walk[stop];
+		if (bus[stop] != UNREACHED)
+			ready = Math.min(ready, bus[stop] + change_time[stop]);
+
+		return ready;
+	}
+
+	private Journey buildJourney(int round, int source, int target, int departure, int[][] bus, int[][] ride_trip, int[][] ride_board, int[][] walk, int[][] walked_from) {
+		Journey journey = new Journey();
+		journey.departure = departure;
+		journey.arrival = Math.min(bus[round][target], walk[round][target]);
+
+		int stop = target;
+		boolean by_bus = bus[round][target] <= walk[round][target];
+
+		while (by_bus || stop != source) {
+			Journey.Leg leg = new Journey.Leg();
+			leg.to = stops.get(stop);
+
+			if (by_bus) { // Ride from where the trip was boarded, which last round's labels allowed
+				int trip = ride_trip[round][stop];
+				int board_pos = ride_board[round][stop];
+				int r = trip_route[trip];
+
+				leg.trip_id = trip_ids[trip];
+				leg.departure = timeAt(trip, board_pos);
+				leg.arrival = bus[round][stop];
+
+				stop = route_stops[route_stop_offsets[r] + board_pos];
+				round--;
+				by_bus = walk[round][stop] > leg.departure;
+			} else { // Transfer, which always follows a ride unless it starts at the source
+				int prev = walked_from[round][stop];
+
+				leg.trip_id = -1;
+				leg.departure = prev == source ? departure : bus[round][prev];
+				leg.arrival = walk[round][stop];
+
+				stop = prev;
+				by_bus = prev != source;
+			}
+
+			leg.from = stops.get(stop);
+			journey.legs.add(0, leg);
+		}
+
+		return journey;
+	}
+}
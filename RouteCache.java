@@ -0,0 +1,226 @@
+import java.util.*;
+
+/**
+ *  The {@code RouteCache} class keeps recently found shortest paths of a
+ *  {@link BusNetwork}, so repeated queries for the same pair of stops don't
+ *  search the graph again.
+ *  <p>
+ *  Paths are held in a least recently used map keyed by the node ids of their
+ *  ends, bounded by a number of entries. Alongside it a smaller LRU map holds
+ *  shortest path trees by origin: {@link #getPaths} finds the paths from one
+ *  stop to many with a single one-to-all search and keeps its tree, and any
+ *  later miss from the same origin is answered from the tree instead of a new
+ *  search.
+ *  <p>
+ *  All entries belong to the graph they were computed on. Rebuilding the
+ *  network's graph, or calling {@link #invalidate}, drops them. Lookups and
+ *  counters are synchronized on the cache, while searches run outside the lock,
+ *  so two threads missing on the same pair at once may both search it. Cached
+ *  paths are shared between callers and must not be modified.
+ */
+public class RouteCache {
+	public static final int DEFAULT_MAX_PATHS = 4096;
+	public static final int DEFAULT_MAX_TREES = 16;
+
+	private final BusNetwork network;
+	private final int max_paths;
+	private final int max_trees;
+
+	private final LinkedHashMap<Long, BusNetwork.Path> paths;
+	private final LinkedHashMap<Integer, PathSearch.Tree> trees;
+	private CompactGraph graph; // Graph the entries were computed on
+
+	// Metrics
+	private long hits = 0;
+	private long tree_hits = 0; // Misses answered from a cached tree
+	private long misses = 0; // Lookups that needed a search
+	private long evictions = 0;
+	private long invalidations = 0;
+	private long path_bytes = 0; // Estimated size of the cached paths
+
+	public RouteCache(BusNetwork network) {
+		this(network, DEFAULT_MAX_PATHS, DEFAULT_MAX_TREES);
+	}
+
+	public RouteCache(BusNetwork network, int max_paths, int max_trees) {
+		this.network = network;
+		this.max_paths = max_paths;
+		this.max_trees = max_trees;
+
+		this.paths = new LinkedHashMap<Long, BusNetwork.Path>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, BusNetwork.Path> eldest) {
+				if (size() <= RouteCache.this.max_paths) return false;
+
+				evictions++;
+				path_bytes -= estimateBytes(eldest.getValue());
+				return true;
+			}
+		};
+
+		this.trees = new LinkedHashMap<Integer, PathSearch.Tree>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, PathSearch.Tree> eldest) {
+				if (size() <= RouteCache.this.max_trees) return false;
+
+				evictions++;
+				return true;
+			}
+		};
+	}
+
+	private static long key(int from, int to) {
+		return ((long) from << 32) | (to & 0xFFFFFFFFL);
+	}
+
+	private static long estimateBytes(BusNetwork.Path path) { // Map entry, key, path, list and its array; the stops themselves are shared
+		if (path == null) return 80;
+		return 80 + 40 + 16 + 4L * path.stops.size();
+	}
+
+	private static long estimateBytes(PathSearch.Tree tree) {
+		return 48 + 16 + 8L * tree.dist.length + 16 + 4L * tree.came_from.length;
+	}
+
+	private void checkGraph(CompactGraph current) { // Drops everything computed on an older graph; caller holds the lock
+		if (graph == current) return;
+
+		if (!paths.isEmpty() || !trees.isEmpty()) invalidations++;
+		paths.clear();
+		trees.clear();
+		path_bytes = 0;
+		graph = current;
+	}
+
+	public BusNetwork.Path getPath(BusNetwork.Stop from, BusNetwork.Stop to) { // Null if there is no path, which is cached too
+		CompactGraph current = network.getGraph();
+		long key = key(from.node_id, to.node_id);
+
+		PathSearch.Tree tree;
+		synchronized (this) {
+			checkGraph(current);
+
+			if (paths.containsKey(key)) {
+				hits++;
+				return paths.get(key);
+			}
+
+			tree = trees.get(from.node_id);
+			if (tree != null) tree_hits++;
+			else misses++;
+		}
+
+		BusNetwork.Path path;
+		if (tree != null)
+			path = network.buildPath(tree.pathTo(to.node_id));
+		else
+			path = network.getPath(from, to);
+
+		put(current, key, path);
+		return path;
+	}
+
+	public List<BusNetwork.Path> getPaths(BusNetwork.Stop from, List<BusNetwork.Stop> targets) { // Paths from one stop to each target, in order, sharing one search
+		CompactGraph current = network.getGraph();
+
+		PathSearch.Tree tree;
+		synchronized (this) {
+			checkGraph(current);
+			tree = trees.get(from.node_id);
+		}
+
+		List<BusNetwork.Path> ret = new ArrayList<BusNetwork.Path>(targets.size());
+		for (BusNetwork.Stop to:targets) {
+			long key = key(from.node_id, to.node_id);
+
+			synchronized (this) {
+				if (graph == current && paths.containsKey(key)) {
+					hits++;
+					ret.add(paths.get(key));
+					continue;
+				}
+
+				if (tree != null) tree_hits++;
+				else misses++;
+			}
+
+			if (tree == null) { // First miss, searching the whole tree once
+				tree = network.getSearch().shortestPathTree(from.node_id);
+
+				synchronized (this) {
+					if (graph == current) trees.put(from.node_id, tree);
+				}
+			}
+
+			BusNetwork.Path path = network.buildPath(tree.pathTo(to.node_id));
+			put(current, key, path);
+			ret.add(path);
+		}
+
+		return ret;
+	}
+
+	private synchronized void put(CompactGraph current, long key, BusNetwork.Path path) {
+		if (graph != current) return; // Invalidated while searching
+
+		if (paths.containsKey(key)) path_bytes -= estimateBytes(paths.get(key));
+		paths.put(key, path);
+		path_bytes += estimateBytes(path);
+	}
+
+	public synchronized void invalidate() { // Drops every cached path and tree
+		if (!paths.isEmpty() || !trees.isEmpty()) invalidations++;
+
+		paths.clear();
+		trees.clear();
+		path_bytes = 0;
+	}
+
+	// Metrics
+
+	public synchronized int size() {
+		return paths.size();
+	}
+
+	public synchronized int treeCount() {
+		return trees.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getTreeHits() {
+		return tree_hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized long getInvalidations() {
+		return invalidations;
+	}
+
+	public synchronized double getHitRate() { // Share of lookups answered without a search, from the path map or a tree
+		long lookups = hits + tree_hits + misses;
+		return lookups == 0 ? 0 : (double) (hits + tree_hits) / lookups;
+	}
+
+	public synchronized long estimateBytes() { // Rough retained size of the cached paths and trees
+		long bytes = path_bytes;
+		for (PathSearch.Tree tree:trees.values())
+			bytes += estimateBytes(tree);
+
+		return bytes;
+	}
+
+	public synchronized String toString() {
+		return String.format("%d paths, %d trees, hit rate %.1f%% (%d hits, %d from trees, %d misses), %d evictions, %d invalidations, ~%d KB",
+			paths.size(), trees.size(), getHitRate() * 100, hits, tree_hits, misses, evictions, invalidations, estimateBytes() / 1024);
+	}
+}
@@ -0,0 +1,106 @@
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ *  The {@code SearchWorkspace} class holds the per-node arrays and heaps that a
+ *  {@link PathSearch} query works in, so they can be kept from one query to the
+ *  next instead of being allocated for each.
+ *  <p>
+ *  Rather than refilling its arrays before every query, a workspace stamps each
+ *  node with the generation (query number) that last touched it, and a node
+ *  with an older stamp reads as unvisited. Starting a query is a counter
+ *  increment, and emptying the heaps only touches the nodes left on them, so a
+ *  query costs time in proportion to the nodes it reaches rather than the size
+ *  of the network.
+ *  <p>
+ *  A workspace serves one query at a time. {@link PathSearch} keeps one per
+ *  thread in a {@code ThreadLocal}, or, when set to, lends them from a
+ *  {@link Pool}, for callers such as virtual threads that are too many and too
+ *  short lived for a workspace each.
+ */
+public class SearchWorkspace {
+	final double[] dist;
+	final int[] came_from;
+	final double[] bound; // Cached A* heuristic, NaN until computed
+	final IndexMinPQ queue;
+	final LazyMinPQ lazy_queue;
+
+	boolean lent = false; // Whether it came from a Pool, and goes back to it
+
+	private final int[] stamps; // Generation that last touched each node
+	private int generation = 0;
+
+	public SearchWorkspace(int node_count) {
+		dist = new double[node_count];
+		came_from = new int[node_count];
+		bound = new double[node_count];
+		queue = new IndexMinPQ(node_count);
+		lazy_queue = new LazyMinPQ(64);
+		stamps = new int[node_count];
+	}
+
+	public int nodeCount() {
+		return stamps.length;
+	}
+
+	void begin() { // Starts a query, leaving every node unvisited
+		queue.clear();
+		lazy_queue.clear();
+
+		if (++generation == Integer.MAX_VALUE) { // Out of stamps, so starting them again
+			Arrays.fill(stamps, 0);
+			generation = 1;
+		}
+	}
+
+	void touch(int node) { // Resets a node's entries if they're left from an earlier query; must come before reading them
+		if (stamps[node] != generation) {
+			stamps[node] = generation;
+			dist[node] = Double.MAX_VALUE;
+			came_from[node] = -1;
+			bound[node] = Double.NaN;
+		}
+	}
+
+	boolean visited(int node) { // Whether the current query has touched node
+		return stamps[node] == generation;
+	}
+
+	double distance(int node) { // Cost found to node by the current query, Double.MAX_VALUE if not reached
+		return visited(node) ? dist[node] : Double.MAX_VALUE;
+	}
+
+	int parent(int node) { // Predecessor of node in the current query, -1 if none
+		return visited(node) ? came_from[node] : -1;
+	}
+
+	// Pool
+
+	public static class Pool {
+		private final int node_count;
+		private final ArrayBlockingQueue<SearchWorkspace> idle;
+
+		public Pool(int node_count, int max_idle) {
+			this.node_count = node_count;
+			this.idle = new ArrayBlockingQueue<SearchWorkspace>(max_idle);
+		}
+
+		public SearchWorkspace acquire() { // An idle workspace, or a new one if none is free
+			SearchWorkspace workspace = idle.poll();
+			if (workspace != null) return workspace;
+
+			workspace = new SearchWorkspace(node_count);
+			workspace.lent = true;
+
+			return workspace;
+		}
+
+		public void release(SearchWorkspace workspace) { // Returns a workspace for reuse, dropping it if enough are idle already
+			idle.offer(workspace);
+		}
+
+		public int idleCount() {
+			return idle.size();
+		}
+	}
+}
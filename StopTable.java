@@ -0,0 +1,204 @@
+import java.util.*;
+
+/**
+ *  The {@code StopTable} class stores the stops of a {@link BusNetwork} column by
+ *  column: primitive arrays for the ids, codes and coordinates, and for each text
+ *  field an index into a pool of distinct strings, so a zone or description
+ *  shared by thousands of stops is only held once.
+ *  <p>
+ *  Row {@code i} is the stop with node id {@code i}, and {@link BusNetwork.Stop}
+ *  objects are flyweight views of a row. A table is filled through a
+ *  {@link StopTable.Builder} and doesn't change once built.
+ */
+public class StopTable {
+	final int[] stop_ids;
+	final int[] stop_codes; // -1 if the stop has none
+	final double[] lats;
+	final double[] lons;
+
+	// Indices into strings
+	final int[] names;
+	final int[] descs;
+	final int[] zones;
+	final int[] keys; // Search keys, see BusNetwork.Stop
+
+	final String[] strings; // Each distinct string once
+
+	StopTable(int[] stop_ids, int[] stop_codes, double[] lats, double[] lons, int[] names, int[] descs, int[] zones, int[] keys, String[] strings) {
+		this.stop_ids = stop_ids;
+		this.stop_codes = stop_codes;
+		this.lats = lats;
+		this.lons = lons;
+		this.names = names;
+		this.descs = descs;
+		this.zones = zones;
+		this.keys = keys;
+		this.strings = strings;
+	}
+
+	public int size() {
+		return stop_ids.length;
+	}
+
+	public int stringCount() {
+		return strings.length;
+	}
+
+	public int getStopId(int node) {
+		return stop_ids[node];
+	}
+
+	public int getStopCode(int node) {
+		return stop_codes[node];
+	}
+
+	public double getLat(int node) {
+		return lats[node];
+	}
+
+	public double getLon(int node) {
+		return lons[node];
+	}
+
+	public String getName(int node) {
+		return strings[names[node]];
+	}
+
+	public String getDesc(int node) {
+		return strings[descs[node]];
+	}
+
+	public String getZone(int node) {
+		return strings[zones[node]];
+	}
+
+	public String getKey(int node) {
+		return strings[keys[node]];
+	}
+
+	// Copy on write
+
+	StopTable withRows(int[] nodes, StopTable rows) { // Copy with row r of rows written to node nodes[r], appending nodes past the end; columns left unchanged are shared with this table
+		int size = stop_ids.length;
+		for (int node:nodes)
+			size = Math.max(size, node + 1);
+
+		// Adding the rows' strings to the pool
+
+		Map<String, Integer> pool = new HashMap<String, Integer>(strings.length * 2);
+		for (int i = 0; i < strings.length; i++)
+			pool.put(strings[i], i);
+
+		List<String> pooled = new ArrayList<String>(Arrays.asList(strings));
+		int[] refs = new int[rows.strings.length]; // Index in the new pool of each of the rows' strings
+
+		for (int i = 0; i < refs.length; i++) {
+			Integer ref = pool.get(rows.strings[i]);
+			if (ref == null) {
+				ref = pooled.size();
+				pooled.add(rows.strings[i]);
+				pool.put(rows.strings[i], ref);
+			}
+
+			refs[i] = ref;
+		}
+
+		return new StopTable(column(stop_ids, size, nodes, rows.stop_ids), column(stop_codes, size, nodes, rows.stop_codes),
+			column(lats, size, nodes, rows.lats), column(lons, size, nodes, rows.lons),
+			column(names, size, nodes, translate(rows.names, refs)), column(descs, size, nodes, translate(rows.descs, refs)),
+			column(zones, size, nodes, translate(rows.zones, refs)), column(keys, size, nodes, translate(rows.keys, refs)),
+			pooled.size() == strings.length ? strings : pooled.toArray(new String[0]));
+	}
+
+	private static int[] translate(int[] string_refs, int[] refs) {
+		int[] ret = new int[string_refs.length];
+		for (int i = 0; i < ret.length; i++)
+			ret[i] = refs[string_refs[i]];
+
+		return ret;
+	}
+
+	private static int[] column(int[] old, int size, int[] nodes, int[] values) { // The old column if the values are already there, otherwise a copy with them written
+		boolean same = old.length == size;
+		for (int r = 0; same && r < nodes.length; r++)
+			same = old[nodes[r]] == values[r];
+		if (same) return old;
+
+		int[] ret = Arrays.copyOf(old, size);
+		for (int r = 0; r < nodes.length; r++)
+			ret[nodes[r]] = values[r];
+
+		return ret;
+	}
+
+	private static double[] column(double[] old, int size, int[] nodes, double[] values) {
+		boolean same = old.length == size;
+		for (int r = 0; same && r < nodes.length; r++)
+			same = Double.compare(old[nodes[r]], values[r]) == 0;
+		if (same) return old;
+
+		double[] ret = Arrays.copyOf(old, size);
+		for (int r = 0; r < nodes.length; r++)
+			ret[nodes[r]] = values[r];
+
+		return ret;
+	}
+
+	// Builder
+
+	public static class Builder {
+		private int[] stop_ids = new int[16];
+		private int[] stop_codes = new int[16];
+		private double[] lats = new double[16];
+		private double[] lons = new double[16];
+		private int[] names = new int[16];
+		private int[] descs = new int[16];
+		private int[] zones = new int[16];
+		private int[] keys = new int[16];
+		private int size = 0;
+
+		private Map<String, Integer> pool = new HashMap<String, Integer>();
+		private List<String> strings = new ArrayList<String>();
+
+		private int intern(String str) { // Index of str in the pool, adding it if it's new
+			Integer ref = pool.get(str);
+			if (ref == null) {
+				ref = strings.size();
+				strings.add(str);
+				pool.put(str, ref);
+			}
+
+			return ref;
+		}
+
+		public int add(int stop_id, int stop_code, String name, String desc, double lat, double lon, String zone) { // Returns the new stop's node id
+			if (size == stop_ids.length) {
+				int capacity = size * 2;
+				stop_ids = Arrays.copyOf(stop_ids, capacity);
+				stop_codes = Arrays.copyOf(stop_codes, capacity);
+				lats = Arrays.copyOf(lats, capacity);
+				lons = Arrays.copyOf(lons, capacity);
+				names = Arrays.copyOf(names, capacity);
+				descs = Arrays.copyOf(descs, capacity);
+				zones = Arrays.copyOf(zones, capacity);
+				keys = Arrays.copyOf(keys, capacity);
+			}
+
+			stop_ids[size] = stop_id;
+			stop_codes[size] = stop_code;
+			lats[size] = lat;
+			lons[size] = lon;
+			names[size] = intern(name);
+			descs[size] = intern(desc);
+			zones[size] = intern(zone);
+			keys[size] = intern(BusNetwork.Stop.correct_name(name));
+
+			return size++;
+		}
+
+		public StopTable build() {
+			return new StopTable(Arrays.copyOf(stop_ids, size), Arrays.copyOf(stop_codes, size), Arrays.copyOf(lats, size), Arrays.copyOf(lons, size),
+				Arrays.copyOf(names, size), Arrays.copyOf(descs, size), Arrays.copyOf(zones, size), Arrays.copyOf(keys, size), strings.toArray(new String[0]));
+		}
+	}
+}
@@ -0,0 +1,129 @@
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ *  The {@code TimetableIndex} class finds the trips of a {@link BusNetwork} by
+ *  the time they end.
+ *  <p>
+ *  Trips are kept in the order of {@code trip_list}, which is sorted by end
+ *  time, and a bucket offset array holds, for every second of the service day
+ *  up to the last trip's end, the index of the first trip ending at or after
+ *  it. The trips ending at an exact time, or within a window, are then a
+ *  contiguous range found in constant time, and are returned as read-only
+ *  views of the trip list rather than copies.
+ *  <p>
+ *  Trips ending after midnight are timed from the start of their service day,
+ *  past 24:00, so a window of clock times covers up to four such ranges. They
+ *  are joined by a view too.
+ *  <p>
+ *  Trips with an unknown end time are left out.
+ */
+public class TimetableIndex {
+	private final List<BusNetwork.Trip> trips; // Sorted by end time
+	private final int[] bucket_offsets; // First trip ending at or after each second
+	private final int count; // Trips with a known end time, which come first
+
+	public TimetableIndex(List<BusNetwork.Trip> trips) {
+		this.trips = trips;
+
+		int known = 0;
+		while (known < trips.size() && trips.get(known).last_time != BusNetwork.Trip.NO_TIME)
+			known++;
+		count = known;
+
+		int last_second = count > 0 ? trips.get(count-1).last_time : 0;
+		bucket_offsets = new int[last_second + 2];
+
+		int t = 0;
+		for (int second = 0; second < bucket_offsets.length; second++) {
+			while (t < count && trips.get(t).last_time < second)
+				t++;
+			bucket_offsets[second] = t;
+		}
+	}
+
+	private int offset(int second) { // First trip ending at or after second
+		if (second <= 0) return 0;
+		if (second >= bucket_offsets.length) return count;
+
+		return bucket_offsets[second];
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public List<BusNetwork.Trip> tripsAt(int second) { // Trips ending at exactly this second of the day
+		return tripsBetween(second, second);
+	}
+
+	public List<BusNetwork.Trip> tripsBetween(int from, int to) { // Trips ending from one second to another, both inclusive
+		if (to < from) return Collections.emptyList();
+
+		return Collections.unmodifiableList(trips.subList(offset(from), offset(to + 1)));
+	}
+
+	public List<BusNetwork.Trip> tripsBetweenClockTimes(int from, int to) { // Trips ending from one time of day to another, both inclusive, on either side of midnight, wrapping if to is before from
+		int day = BusNetwork.DAY_SECONDS;
+
+		// Disjoint and in increasing order, so the trips stay sorted by end time
+		int[] seconds = to < from
+			? new int[] {0, to, from, day - 1, day, day + to, day + from, 2*day - 1}
+			: new int[] {from, to, day + from, day + to};
+
+		int[] starts = new int[seconds.length / 2];
+		int[] ends = new int[seconds.length / 2];
+		int ranges = 0;
+
+		for (int r = 0; r < seconds.length; r += 2) {
+			int start = offset(seconds[r]);
+			int end = offset(seconds[r+1] + 1);
+			if (start == end) continue;
+
+			starts[ranges] = start;
+			ends[ranges] = end;
+			ranges++;
+		}
+
+		if (ranges == 0) return Collections.emptyList();
+		if (ranges == 1) return Collections.unmodifiableList(trips.subList(starts[0], ends[0]));
+
+		return new Ranges(starts, ends, ranges);
+	}
+
+	// Read-only view of several ranges of the trip list, one after another
+	private class Ranges extends AbstractList<BusNetwork.Trip> implements RandomAccess {
+		private final int[] starts;
+		private final int[] ends;
+		private final int ranges;
+		private final int size;
+
+		Ranges(int[] starts, int[] ends, int ranges) {
+			this.starts = starts;
+			this.ends = ends;
+			this.ranges = ranges;
+
+			int size = 0;
+			for (int r = 0; r < ranges; r++)
+				size += ends[r] - starts[r];
+			this.size = size;
+		}
+
+		public BusNetwork.Trip get(int index) {
+			if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+
+			for (int r = 0; ; r++) {
+				int length = ends[r] - starts[r];
+				if (index < length) return trips.get(starts[r] + index);
+
+				index -= length;
+			}
+		}
+
+		public int size() {
+			return size;
+		}
+	}
+}
@@ -0,0 +1,194 @@
+import java.util.*;
+
+/**
+ *  The {@code TokenIndex} class finds stops by the words in their names and
+ *  descriptions, wherever those words appear, so "HASTINGS" finds
+ *  "WB W HASTINGS ST FS ..." as well as stops whose name starts with it.
+ *  <p>
+ *  Names and descriptions are split into tokens at every character that isn't a
+ *  letter or digit. The distinct tokens are kept sorted, and each has a posting
+ *  list of the node ids of the stops using it, sorted and in CSR form. A query
+ *  is split the same way, and each of its tokens matches every indexed token it
+ *  is a prefix of, which is a contiguous range of the sorted tokens. The stops
+ *  matching all the query's tokens are found by intersecting the posting lists,
+ *  smallest first, galloping through the longer list at each step.
+ */
+public class TokenIndex {
+	private final String[] tokens; // Sorted
+	private final int[] posting_offsets; // Postings of tokens[t] are at posting_offsets[t] to posting_offsets[t+1]
+	private final int[] postings; // Node ids
+
+	public TokenIndex(StopTable table) {
+		// Tokenizing each pooled string once
+
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		List<String> found = new ArrayList<String>();
+		int[][] string_tokens = new int[table.stringCount()][];
+
+		for (int s = 0; s < string_tokens.length; s++) {
+			List<String> words = tokenize(table.strings[s]);
+			string_tokens[s] = new int[words.size()];
+
+			for (int w = 0; w < words.size(); w++) {
+				Integer id = ids.get(words.get(w));
+				if (id == null) {
+					id = found.size();
+					found.add(words.get(w));
+					ids.put(words.get(w), id);
+				}
+				string_tokens[s][w] = id;
+			}
+		}
+
+		// Renumbering tokens in sorted order
+
+		tokens = found.toArray(new String[0]);
+		Arrays.sort(tokens);
+
+		int[] rank = new int[tokens.length];
+		for (int t = 0; t < tokens.length; t++)
+			rank[ids.get(tokens[t])] = t;
+
+		// Pairs of (token, node), sorted and deduplicated into posting lists
+
+		int count = 0;
+		for (int i = 0; i < table.size(); i++)
+			count += string_tokens[table.names[i]].length + string_tokens[table.descs[i]].length;
+
+		long[] pairs = new long[count];
+		count = 0;
+		for (int i = 0; i < table.size(); i++) {
+			for (int id:string_tokens[table.names[i]])
+				pairs[count++] = ((long) rank[id] << 32) | i;
+			for (int id:string_tokens[table.descs[i]])
+				pairs[count++] = ((long) rank[id] << 32) | i;
+		}
+		Arrays.sort(pairs);
+
+		posting_offsets = new int[tokens.length + 1];
+		int[] nodes = new int[count];
+		int size = 0;
+
+		for (int p = 0; p < count; p++) {
+			if (p > 0 && pairs[p] == pairs[p-1]) continue;
+
+			posting_offsets[(int) (pairs[p] >>> 32) + 1]++;
+			nodes[size++] = (int) pairs[p];
+		}
+
+		for (int t = 0; t < tokens.length; t++)
+			posting_offsets[t+1] += posting_offsets[t];
+
+		postings = Arrays.copyOf(nodes, size);
+	}
+
+	public static List<String> tokenize(String text) { // Upper case runs of letters and digits
+		List<String> ret = new ArrayList<String>();
+
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+
+			if (word && start == -1) {
+				start = i;
+			} else if (!word && start != -1) {
+				ret.add(text.substring(start, i).toUpperCase());
+				start = -1;
+			}
+		}
+
+		return ret;
+	}
+
+	public int tokenCount() {
+		return tokens.length;
+	}
+
+	public int postingCount() {
+		return postings.length;
+	}
+
+	private int lowerBound(String key) { // First token not before key
+		int first = 0;
+		int last = tokens.length;
+
+		while (first < last) {
+			int mid = (first + last) >>> 1;
+			if (tokens[mid].compareTo(key) < 0)
+				first = mid + 1;
+			else
+				last = mid;
+		}
+
+		return first;
+	}
+
+	private int[] matches(String word) { // Sorted node ids of stops with a token starting with word
+		int first = lowerBound(word);
+		int last = lowerBound(word + Character.MAX_VALUE);
+
+		int[] ret = Arrays.copyOfRange(postings, posting_offsets[first], posting_offsets[last]);
+		if (last - first <= 1) return ret; // A single token's postings are already sorted and distinct
+
+		Arrays.sort(ret);
+
+		int size = 0;
+		for (int i = 0; i < ret.length; i++)
+			if (size == 0 || ret[i] != ret[size-1])
+				ret[size++] = ret[i];
+
+		return Arrays.copyOf(ret, size);
+	}
+
+	public int[] search(String query) { // Sorted node ids of the stops matching every word of query
+		List<String> words = tokenize(query);
+		if (words.isEmpty()) return new int[0];
+
+		int[][] lists = new int[words.size()][];
+		for (int w = 0; w < lists.length; w++)
+			lists[w] = matches(words.get(w));
+
+		Arrays.sort(lists, (a, b) -> Integer.compare(a.length, b.length));
+
+		int[] ret = lists[0];
+		int size = ret.length;
+		for (int w = 1; w < lists.length && size > 0; w++)
+			size = intersect(ret, size, lists[w]);
+
+		return Arrays.copyOf(ret, size);
+	}
+
+	private static int intersect(int[] a, int a_size, int[] b) { // Keeps the first a_size entries of a that are also in b, returning how many
+		int size = 0;
+		int j = 0;
+
+		for (int i = 0; i < a_size && j < b.length; i++) {
+			int value = a[i];
+
+			// Galloping to a range of b that holds value, then searching it
+			int step = 1;
+			int low = j;
+			while (j < b.length && b[j] < value) {
+				low = j;
+				j = Math.min(b.length, j + step);
+				step *= 2;
+			}
+
+			int first = low;
+			int last = j;
+			while (first < last) {
+				int mid = (first + last) >>> 1;
+				if (b[mid] < value)
+					first = mid + 1;
+				else
+					last = mid;
+			}
+			j = first;
+
+			if (j < b.length && b[j] == value)
+				a[size++] = value;
+		}
+
+		return size;
+	}
+}